@@ -0,0 +1,283 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Journal en ajout seul (une ligne par enregistrement) avec écriture groupée :
+// les appelants déposent leurs lignes dans une file, un thread de fond les écrit
+// par lots (au plus maxBatch lignes, ou après batchWindowMillis) puis synchronise
+// le fichier selon la politique choisie. Le coût par message ne dépend plus de la
+// taille du fichier, et aucune E/S n'a lieu sur le thread appelant.
+public class AppendOnlyJournal implements Closeable {
+
+    // Synchronisation disque (fsync) après écriture
+    enum SyncPolicy {
+        NONE,  // laissée au système d'exploitation
+        BATCH; // après chaque lot écrit
+
+        static SyncPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    // Demande de vidage : terminée une fois tout ce qui la précède écrit
+    private static class FlushRequest {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+
+    // Dernier élément de la file : le rédacteur écrit ce qui précède, ferme le fichier et s'arrête
+    private static final class CloseRequest extends FlushRequest {
+    }
+
+    // Bascule vers un nouveau fichier, traitée dans l'ordre de la file
+    private static final class RotateRequest extends FlushRequest {
+        final Path target;
+
+        RotateRequest(Path target) {
+            this.target = target;
+        }
+    }
+
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+
+    // Modifiés uniquement par le rédacteur (rotation)
+    private volatile Path path;
+    private FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final int maxBatch;
+    private final long batchWindowMillis;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    // Vide la file à l'arrêt de la JVM (le rédacteur est un thread démon)
+    private final Thread shutdownHook;
+    // Le test de closed et le dépôt dans la file sont atomiques : rien n'est déposé après la
+    // demande de fermeture, qui reste donc le dernier élément lu par le rédacteur
+    private final Object queueLock = new Object();
+    private volatile boolean closed = false;
+
+    AppendOnlyJournal(String fileName, SyncPolicy syncPolicy, int maxBatch, long batchWindowMillis) throws IOException {
+        this.path = Paths.get(fileName);
+        this.channel = open(path);
+        this.syncPolicy = syncPolicy;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.batchWindowMillis = Math.max(0, batchWindowMillis);
+        this.writer = new Thread(this::runWriter, "journal-" + path.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.shutdownHook = new Thread(() -> flush().join(), "journal-shutdown-" + path.getFileName());
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    // Ajoute une ligne (sans \n). Bloque seulement si le rédacteur a 64k lignes de retard.
+    void append(String line) {
+        synchronized (queueLock) {
+            if (closed) {
+                throw new IllegalStateException("Journal ferme : " + path);
+            }
+            try {
+                queue.put(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Vidage explicite : la future se termine quand les lignes déjà déposées sont écrites.
+    // Après close(), tout est déjà écrit.
+    CompletableFuture<Void> flush() {
+        FlushRequest request = new FlushRequest();
+        synchronized (queueLock) {
+            if (closed) {
+                return CompletableFuture.completedFuture(null);
+            }
+            enqueue(request);
+        }
+        return request.done;
+    }
+
+    // Les lignes déposées avant cet appel restent dans le fichier courant, les suivantes
+    // vont dans fileName. La future se termine une fois l'ancien fichier écrit et fermé.
+    CompletableFuture<Void> rotate(String fileName) {
+        RotateRequest request = new RotateRequest(Paths.get(fileName));
+        synchronized (queueLock) {
+            if (closed) {
+                request.done.completeExceptionally(new IllegalStateException("Journal ferme : " + path));
+                return request.done;
+            }
+            enqueue(request);
+        }
+        return request.done;
+    }
+
+    private void enqueue(FlushRequest request) {
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.done.completeExceptionally(e);
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Les lignes déposées avant la fermeture sont écrites, puis le rédacteur ferme le fichier et
+    // s'arrête de lui-même : il n'est jamais interrompu au milieu d'une écriture (un FileChannel
+    // interrompu est fermé et le lot en cours perdu).
+    @Override
+    public void close() throws IOException {
+        CloseRequest request = new CloseRequest();
+        boolean interrupted = false;
+        synchronized (queueLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            while (true) {
+                try {
+                    queue.put(request);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Arrêt de la JVM déjà en cours
+        }
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            request.done.join();
+        } catch (CompletionException e) {
+            throw new IOException("Fermeture du journal " + path, e.getCause());
+        }
+    }
+
+    private void runWriter() {
+        List<Object> batch = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                // Fenêtre de regroupement : on attend d'autres lignes, sans dépasser maxBatch
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Object next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    if (next instanceof FlushRequest) {
+                        break; // un vidage explicite n'attend pas la fin de la fenêtre
+                    }
+                }
+            } catch (InterruptedException e) {
+                continue; // le rédacteur ne s'arrête que sur la demande de fermeture
+            }
+            if (batch.get(batch.size() - 1) instanceof CloseRequest) {
+                closeChannel((CloseRequest) batch.remove(batch.size() - 1), batch, bytes);
+                return;
+            }
+            writeBatch(batch, bytes);
+            batch.clear();
+            bytes.reset();
+        }
+    }
+
+    // Dernier lot puis fermeture du fichier ; la demande ne se termine qu'ensuite
+    private void closeChannel(CloseRequest request, List<Object> batch, ByteArrayOutputStream bytes) {
+        writeBatch(batch, bytes);
+        try {
+            channel.close();
+            request.done.complete(null);
+        } catch (IOException e) {
+            request.done.completeExceptionally(e);
+        }
+    }
+
+    private void writeBatch(List<Object> batch, ByteArrayOutputStream bytes) {
+        List<FlushRequest> flushes = new ArrayList<>();
+        IOException failure = null;
+        for (Object item : batch) {
+            if (item instanceof RotateRequest) {
+                // Tout ce qui précède la rotation est écrit dans l'ancien fichier. Le nouveau est
+                // ouvert avant de fermer l'ancien : si l'ouverture échoue, l'écriture continue
+                // dans le fichier courant au lieu d'un canal fermé
+                try {
+                    writeBytes(bytes, true);
+                    Path target = ((RotateRequest) item).target;
+                    FileChannel next = open(target);
+                    FileChannel previous = channel;
+                    channel = next;
+                    path = target;
+                    previous.close();
+                } catch (IOException e) {
+                    failure = e;
+                    e.printStackTrace();
+                }
+                flushes.add((FlushRequest) item);
+            } else if (item instanceof FlushRequest) {
+                flushes.add((FlushRequest) item);
+            } else {
+                byte[] line = (item + "\n").getBytes(StandardCharsets.UTF_8);
+                bytes.write(line, 0, line.length);
+            }
+        }
+        try {
+            writeBytes(bytes, syncPolicy == SyncPolicy.BATCH);
+        } catch (IOException e) {
+            failure = e;
+            e.printStackTrace();
+        }
+        for (FlushRequest flush : flushes) {
+            if (failure == null) {
+                flush.done.complete(null);
+            } else {
+                flush.done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void writeBytes(ByteArrayOutputStream bytes, boolean sync) throws IOException {
+        if (bytes.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        bytes.reset();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Journal applicatif asynchrone et borné : log() ne fait que déposer la ligne dans un
+// tampon circulaire de capacité fixe (jamais d'attente, les lignes en trop sont comptées
+// puis signalées). Un thread de fond vide le tampon par lots vers un fichier tournant
+// (server.log, server.log.1, ...) et vers les observateurs éventuels (fenêtre, console).
+public class AsyncLogger implements Closeable {
+
+    private static final int MAX_BATCH = 1024;
+
+    private final BlockingQueue<String> buffer;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final List<Consumer<List<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS ");
+    private final Thread writerThread;
+    private final Thread shutdownHook;
+    private Writer writer;
+    // Octets réellement écrits (UTF-8, pas des caractères) : décide de la rotation
+    private CountingOutput output;
+    // Durée d'écriture de chaque lot dans le fichier (métriques du serveur), facultatif
+    private volatile LatencyHistogram flushTimes;
+    private volatile boolean closed = false;
+
+    // fileName vide : pas de fichier, seulement les observateurs
+    AsyncLogger(String fileName, int capacity, long maxFileBytes, int maxFiles) throws IOException {
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.file = fileName == null || fileName.isEmpty() ? null : Paths.get(fileName);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        if (file != null) {
+            openFile();
+        }
+        this.writerThread = new Thread(this::runWriter, "async-logger");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        this.shutdownHook = new Thread(this::drainRemaining, "async-logger-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    static AsyncLogger fromConfig(ServerConfig config) throws IOException {
+        return new AsyncLogger(config.logFile, config.logBufferSize, config.logMaxBytes, config.logMaxFiles);
+    }
+
+    // Ne bloque jamais : si le tampon est plein, la ligne est perdue (et comptée)
+    void log(String line) {
+        if (!buffer.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    // Reçoit chaque lot écrit, depuis le thread du journal
+    void addListener(Consumer<List<String>> listener) {
+        listeners.add(listener);
+    }
+
+    void recordFlushTimes(LatencyHistogram histogram) {
+        this.flushTimes = histogram;
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Arrêt de la JVM déjà en cours
+        }
+        drainRemaining();
+        closeFile();
+    }
+
+    private void runWriter() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            try {
+                batch.add(buffer.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            buffer.drainTo(batch, MAX_BATCH - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private synchronized void drainRemaining() {
+        List<String> batch = new ArrayList<>();
+        buffer.drainTo(batch);
+        writeBatch(batch);
+    }
+
+    private synchronized void writeBatch(List<String> batch) {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            batch.add("[journal] " + lost + " lignes perdues (tampon plein)");
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (writer != null) {
+            long start = System.nanoTime();
+            try {
+                String prefix = LocalDateTime.now().format(timeFormatter);
+                for (String line : batch) {
+                    writer.write(prefix);
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                writer.flush();
+                LatencyHistogram histogram = flushTimes;
+                if (histogram != null) {
+                    histogram.record(System.nanoTime() - start);
+                }
+                if (output.count >= maxFileBytes) {
+                    roll();
+                }
+            } catch (IOException e) {
+                System.err.println("Erreur d'ecriture du journal " + file + " : " + e.getMessage());
+            }
+        }
+        for (Consumer<List<String>> listener : listeners) {
+            try {
+                listener.accept(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void openFile() throws IOException {
+        output = new CountingOutput(new FileOutputStream(file.toFile(), true), Files.exists(file) ? Files.size(file) : 0);
+        writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+
+    // Rotation : server.log.(n-1) -> server.log.n, ..., server.log -> server.log.1 (n = maxFiles archives)
+    private void roll() throws IOException {
+        closeFile();
+        for (int index = maxFiles; index >= 1; index--) {
+            Path source = index == 1 ? file : Paths.get(file + "." + (index - 1));
+            if (Files.exists(source)) {
+                Files.move(source, Paths.get(file + "." + index), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        openFile();
+    }
+
+    private void closeFile() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Fermeture best-effort
+            }
+            writer = null;
+            output = null;
+        }
+    }
+
+    // Compte les octets encodés qui passent vers le fichier (taille courante du fichier)
+    private static final class CountingOutput extends FilterOutputStream {
+        long count;
+
+        CountingOutput(OutputStream out, long initialCount) {
+            super(out);
+            this.count = initialCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
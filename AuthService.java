@@ -0,0 +1,248 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Authentification pendant la poignée de main. En réponse à REQUEST_PSEUDO, le client envoie :
+//   AUTH:<utilisateur>:<mot de passe>      connexion à un compte existant
+//   REGISTER:<utilisateur>:<mot de passe>  création du compte puis connexion
+//   RESUME:<jeton>[:<séquence>]            reprise d'une session récente, sans mot de passe ;
+//                                          avec la dernière séquence d'historique reçue, seuls
+//                                          les messages manqués sont rejoués
+//   <pseudo>                               session anonyme (refusée avec --require-auth)
+// Le hachage et l'écriture du compte ont lieu sur un pool borné (--auth-threads, file de
+// --auth-queue tâches) : un afflux de connexions ne prend jamais les threads de messages.
+// Au-delà, la connexion est refusée tout de suite. Une authentification réussie délivre un
+// jeton de session à usage unique : chaque reprise en délivre un nouveau, et une reconnexion
+// n'a plus besoin de hacher le mot de passe. Le jeton n'expire pas tant que sa connexion est
+// ouverte ; il reste valable --session-ttl-s secondes après la perte de celle-ci.
+final class AuthService {
+
+    static final String AUTH = "AUTH:";
+    static final String REGISTER = "REGISTER:";
+    static final String RESUME = "RESUME:";
+
+    private static final int MIN_PASSWORD_LENGTH = 3;
+    private static final int MAX_USERNAME_LENGTH = 32;
+    private static final String USERNAME_RULES = "1 a " + MAX_USERNAME_LENGTH + " caracteres, sans espace, ':', '|' ni ','";
+
+    // Issue de la poignée de main : nom retenu (ou motif du refus), éventuel jeton de session
+    // et, pour une reprise, la dernière séquence d'historique reçue par le client (-1 : inconnue)
+    static final class Result {
+        final String username;
+        final boolean authenticated;
+        final String token;
+        final String error;
+        final boolean resumed;
+        final long lastSequence;
+
+        private Result(String username, boolean authenticated, String token, String error, boolean resumed, long lastSequence) {
+            this.username = username;
+            this.authenticated = authenticated;
+            this.token = token;
+            this.error = error;
+            this.resumed = resumed;
+            this.lastSequence = lastSequence;
+        }
+
+        boolean isAccepted() {
+            return error == null;
+        }
+
+        static Result anonymous(String pseudo) {
+            return new Result(pseudo, false, null, null, false, -1);
+        }
+
+        static Result failure(String error) {
+            return new Result(null, false, null, error, false, -1);
+        }
+    }
+
+    private static final class Session {
+        final String username;
+        // Long.MAX_VALUE tant qu'une connexion porte le jeton (voir attach, detach)
+        volatile long expiresAtMillis;
+
+        Session(String username, long expiresAtMillis) {
+            this.username = username;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final UserManager users;
+    private final boolean requireAuth;
+    private final long sessionTtlMillis;
+    private final LatencyHistogram latency;
+    private final ThreadPoolExecutor hashingPool;
+    private final ScheduledExecutorService sessionSweeper;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    AuthService(UserManager users, ServerConfig config, LatencyHistogram latency) {
+        this.users = users;
+        this.requireAuth = config.requireAuth;
+        this.sessionTtlMillis = TimeUnit.SECONDS.toMillis(config.sessionTtlSeconds);
+        this.latency = latency;
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, config.authThreads);
+        this.hashingPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.authQueue)), r -> {
+                    Thread thread = new Thread(r, "auth-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.sessionSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "auth-sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepMillis = Math.max(1000, sessionTtlMillis / 2);
+        sessionSweeper.scheduleWithFixedDelay(this::removeExpiredSessions, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Traite la ligne d'identité. Les sessions anonymes et les reprises sont résolues sur le
+    // thread appelant (future déjà terminée) ; AUTH et REGISTER se terminent sur le pool.
+    // La future n'échoue jamais : un refus est un Result dont error est renseigné.
+    CompletableFuture<Result> identify(String identity) {
+        if (identity.startsWith(AUTH) || identity.startsWith(REGISTER)) {
+            boolean register = identity.startsWith(REGISTER);
+            String credentials = identity.substring(register ? REGISTER.length() : AUTH.length());
+            int colon = credentials.indexOf(':');
+            if (colon < 0) {
+                return CompletableFuture.completedFuture(Result.failure("format attendu " + (register ? REGISTER : AUTH) + "<utilisateur>:<mot de passe>"));
+            }
+            return verify(credentials.substring(0, colon).trim(), credentials.substring(colon + 1), register);
+        }
+        if (identity.startsWith(RESUME)) {
+            String[] parts = identity.substring(RESUME.length()).trim().split(":", 2);
+            long lastSequence = -1;
+            if (parts.length == 2) {
+                try {
+                    lastSequence = Long.parseLong(parts[1].trim());
+                } catch (NumberFormatException e) {
+                    // Séquence illisible : synchronisation complète
+                }
+            }
+            return CompletableFuture.completedFuture(resume(parts[0], lastSequence));
+        }
+        if (requireAuth) {
+            return CompletableFuture.completedFuture(Result.failure("authentification requise"));
+        }
+        return CompletableFuture.completedFuture(anonymous(identity.trim()));
+    }
+
+    // Pseudo vide : le serveur en attribue un. Un pseudo anonyme suit les règles des noms de
+    // compte et ne peut pas prendre celui d'un compte existant, connecté ou non.
+    private Result anonymous(String pseudo) {
+        if (pseudo.isEmpty()) {
+            return Result.anonymous(pseudo);
+        }
+        if (!isValidUsername(pseudo)) {
+            return Result.failure("pseudo invalide (" + USERNAME_RULES + ")");
+        }
+        if (users.isRegistered(pseudo)) {
+            return Result.failure("ce pseudo est celui d'un compte, connectez-vous avec " + AUTH + "<utilisateur>:<mot de passe>");
+        }
+        return Result.anonymous(pseudo);
+    }
+
+    // Connexion enregistrée avec ce jeton : la session reste ouverte aussi longtemps qu'elle
+    void attach(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session != null) {
+            session.expiresAtMillis = Long.MAX_VALUE;
+        }
+    }
+
+    // Connexion perdue : le délai de reprise commence maintenant
+    void detach(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session != null) {
+            session.expiresAtMillis = System.currentTimeMillis() + sessionTtlMillis;
+        }
+    }
+
+    // Déconnexion volontaire : le jeton ne permet plus de reprendre la session
+    void revoke(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    private CompletableFuture<Result> verify(String username, String password, boolean register) {
+        if (!isValidUsername(username)) {
+            return CompletableFuture.completedFuture(Result.failure("nom d'utilisateur invalide (" + USERNAME_RULES + ")"));
+        }
+        if (register && password.length() < MIN_PASSWORD_LENGTH) {
+            return CompletableFuture.completedFuture(Result.failure("mot de passe trop court (" + MIN_PASSWORD_LENGTH + " caracteres minimum)"));
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        try {
+            hashingPool.execute(() -> {
+                try {
+                    boolean accepted = register ? users.registerUser(username, password) : users.authenticateUser(username, password);
+                    latency.record(System.nanoTime() - start);
+                    result.complete(accepted ? newSession(username, false, -1)
+                            : Result.failure(register ? "ce nom d'utilisateur existe deja" : "utilisateur ou mot de passe incorrect"));
+                } catch (RuntimeException e) {
+                    // La connexion en attente doit toujours recevoir une réponse
+                    result.complete(Result.failure("erreur interne (" + e.getMessage() + ")"));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.complete(Result.failure("serveur occupe, reessayez dans quelques instants"));
+        }
+        return result;
+    }
+
+    // Reprise : le jeton présenté est consommé et remplacé par un nouveau
+    private Result resume(String token, long lastSequence) {
+        Session session = sessions.remove(token);
+        if (session == null || session.expiresAtMillis < System.currentTimeMillis()) {
+            return Result.failure("session expiree, reconnectez-vous");
+        }
+        return newSession(session.username, true, lastSequence);
+    }
+
+    private Result newSession(String username, boolean resumed, long lastSequence) {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(username, System.currentTimeMillis() + sessionTtlMillis));
+        return new Result(username, true, token, null, resumed, lastSequence);
+    }
+
+    private void removeExpiredSessions() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAtMillis < now) {
+                it.remove();
+            }
+        }
+    }
+
+    // Le nom est aussi une clé des fichiers de comptes (séparateur '|') et un élément des
+    // listes de clients (PRESENCE_SNAPSHOT, /list : séparateur ',')
+    private static boolean isValidUsername(String username) {
+        if (username.isEmpty() || username.length() > MAX_USERNAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (Character.isWhitespace(c) || c == ':' || c == '|' || c == ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,890 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bibliothèque cliente sans interface graphique : connexion non bloquante, poignée de main
+// (tramage, authentification, reprise de session), analyse du protocole et envois en pipeline.
+// Les connexions sont servies par les boucles NIO d'un Group (une boucle partagée par défaut) :
+// un même processus peut tenir des milliers de clients (robots, passerelles, tests de charge).
+// Les méthodes publiques s'appellent depuis n'importe quel thread ; les événements arrivent
+// sur le Listener depuis le thread de la boucle, qui ne doit donc pas être bloqué
+// (EchoClientGUI repasse sur l'EDT). Il en va de même des futures, complétées sur la boucle.
+final class ChatClient {
+
+    static final class Options {
+        String host = "localhost";
+        int port = 12345;
+        boolean binary = true;          // tramage binaire négocié (FRAMING:BINARY)
+        boolean compression = true;     // et compression serveur -> client (FRAMING:BINARY+DEFLATE)
+        boolean autoReconnect = true;   // reprise de session (RESUME:) après une coupure
+        long reconnectMinDelayMillis = 1000; // délai doublé à chaque échec
+        long reconnectMaxDelayMillis = 30000;
+        long handshakeTimeoutMillis = 15000; // connexion sans PSEUDO_ACCEPTED dans ce délai : abandon
+        long maxPendingBytes = 1024 * 1024;  // au-delà, les envois échouent (serveur qui ne lit plus)
+    }
+
+    // Événements d'une connexion ; toutes les méthodes sont facultatives
+    interface Listener {
+        // Connexion TCP établie, poignée de main en cours
+        default void onConnected(ChatClient client) {
+        }
+
+        // Pseudo accepté (première connexion ou reprise) : les envois sont traités par le serveur
+        default void onAccepted(ChatClient client, String pseudo, int clientNumber) {
+        }
+
+        // Toute ligne affichable : messages publics et privés, historique (sans doublon après
+        // une reprise), conférences, réponses aux commandes
+        default void onMessage(ChatClient client, String line) {
+        }
+
+        // Reprise de session : seuls les messages manqués vont suivre
+        default void onHistoryResumed(ChatClient client, int missed) {
+        }
+
+        // Présence : instantané complet (connexion, resynchronisation), puis deltas dans l'ordre
+        default void onPresenceSnapshot(ChatClient client, Map<Integer, String> clients) {
+        }
+
+        default void onUserJoined(ChatClient client, int clientNumber, String pseudo) {
+        }
+
+        default void onUserLeft(ChatClient client, int clientNumber, String pseudo) {
+        }
+
+        default void onConferenceCreated(ChatClient client, String name, boolean group) {
+        }
+
+        // Identité refusée (AUTH_FAILED) : pas de reconnexion automatique
+        default void onRefused(ChatClient client, String reason) {
+        }
+
+        // Fin de connexion ; cause null pour un départ volontaire (disconnect)
+        default void onDisconnected(ChatClient client, IOException cause) {
+        }
+
+        // Reprise de session programmée dans delayMillis
+        default void onReconnecting(ChatClient client, long delayMillis) {
+        }
+    }
+
+    // Boucles NIO partagées par un ensemble de clients (threads démons)
+    static final class Group implements AutoCloseable {
+        private static Group shared;
+
+        private final Loop[] loops;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Group(int loopCount) throws IOException {
+            loops = new Loop[Math.max(1, loopCount)];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new Loop(i);
+            }
+            for (Loop loop : loops) {
+                loop.thread.start();
+            }
+        }
+
+        // Groupe d'une seule boucle, créé au premier client qui n'en précise pas
+        static synchronized Group shared() {
+            if (shared == null) {
+                try {
+                    shared = new Group(1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return shared;
+        }
+
+        private Loop nextLoop() {
+            return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        }
+
+        // Arrête les boucles et ferme leurs connexions
+        @Override
+        public void close() {
+            for (Loop loop : loops) {
+                loop.running = false;
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    private static final class Delayed {
+        final long at;
+        final Runnable task;
+
+        Delayed(long at, Runnable task) {
+            this.at = at;
+            this.task = task;
+        }
+    }
+
+    private static final class Loop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Manipulés uniquement par la boucle : reconnexions programmées, clients à vider
+        final PriorityQueue<Delayed> timers = new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+        final ArrayDeque<ChatClient> dirty = new ArrayDeque<>();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        final ByteBuffer[] gather = new ByteBuffer[64];
+        volatile boolean running = true;
+
+        Loop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "chat-client-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void schedule(long delayMillis, Runnable task) {
+            timers.add(new Delayed(System.nanoTime() + delayMillis * 1_000_000L, task));
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Erreur dans " + thread.getName() + " : " + e);
+                }
+            }
+        }
+
+        // Exécute les échéances passées ; renvoie l'attente avant la suivante (0 : aucune)
+        private long runTimers() {
+            Delayed next;
+            while ((next = timers.peek()) != null) {
+                long remaining = next.at - System.nanoTime();
+                if (remaining > 0) {
+                    return Math.max(1, remaining / 1_000_000L);
+                }
+                timers.poll();
+                execute(next.task);
+            }
+            return 0;
+        }
+
+        // Un seul passage d'écriture par client et par tour, quel que soit le nombre d'envois
+        private void flushDirty() {
+            ChatClient client;
+            while ((client = dirty.poll()) != null) {
+                client.dirty = false;
+                client.flush();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long timeout = runTimers();
+                    if (tasks.isEmpty()) {
+                        selector.select(timeout);
+                    } else {
+                        selector.selectNow();
+                    }
+                    runTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            ((ChatClient) key.attachment()).handle(key);
+                        } catch (RuntimeException e) {
+                            System.err.println("Erreur dans " + thread.getName() + " : " + e);
+                        }
+                    }
+                    // Tâches soumises par la boucle elle-même pendant ce tour, puis écritures groupées
+                    runTasks();
+                    flushDirty();
+                }
+            } catch (IOException e) {
+                System.err.println("Boucle " + thread.getName() + " arretee : " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((ChatClient) key.attachment()).shutdown(new IOException("Client arrete"));
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // Fermeture best-effort
+                }
+            }
+        }
+    }
+
+    // Un envoi en attente et sa future, complétée une fois les octets remis au système
+    private static final class Write {
+        final ByteBuffer buffer;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Write(byte[] data) {
+            this.buffer = ByteBuffer.wrap(data);
+        }
+    }
+
+    // Séquences d'historique reçues. Le serveur réserve la séquence puis diffuse : deux messages
+    // publiés en même temps peuvent arriver dans le désordre (N+1 avant N), un rejeu aussi. Seuls
+    // les vrais doublons sont écartés, et la reprise part de la plus petite séquence manquante.
+    private static final class ReceivedSequences {
+        // Au-delà, les trous les plus anciens sont abandonnés (lignes perdues par débordement)
+        private static final int WINDOW = 1024;
+
+        // Tout ce qui est <= floor a été reçu (ou abandonné) ; above : reçues au-delà d'un trou
+        private long floor = -1;
+        private boolean based;
+        private final TreeSet<Long> above = new TreeSet<>();
+
+        void reset() {
+            floor = -1;
+            based = false;
+            above.clear();
+        }
+
+        // true si la séquence n'a pas encore été reçue
+        boolean accept(long sequence) {
+            if ((based && sequence <= floor) || !above.add(sequence)) {
+                return false;
+            }
+            if (above.size() > WINDOW) {
+                base();
+                floor = Math.max(floor, above.pollFirst());
+            }
+            compact();
+            return true;
+        }
+
+        // Reprise acceptée : le serveur rejoue à partir de first
+        void resumedFrom(long first) {
+            floor = first - 1;
+            based = true;
+            compact();
+        }
+
+        // Fin d'un rejeu complet (première connexion, ou reprise que l'historique ne couvre plus) :
+        // une diffusion a pu arriver avant le rejeu, la plus ancienne séquence reçue ne sert donc
+        // de base que maintenant. Les trous antérieurs ne seront plus rejoués : abandonnés.
+        void replayEnded() {
+            if (!above.isEmpty()) {
+                floor = Math.max(floor, above.first() - 1);
+                based = true;
+            }
+            compact();
+        }
+
+        // Dernière séquence sans trou avant elle (RESUME:<jeton>:<séquence>), -1 si aucune
+        long resumeSequence() {
+            base();
+            compact();
+            return floor;
+        }
+
+        private void base() {
+            if (!based && !above.isEmpty()) {
+                floor = above.first() - 1;
+                based = true;
+            }
+        }
+
+        private void compact() {
+            if (!based) {
+                return;
+            }
+            while (!above.isEmpty() && above.first() <= floor + 1) {
+                floor = Math.max(floor, above.pollFirst());
+            }
+        }
+    }
+
+    private static final String CLIENT_LIST = "] Liste des clients connectes:";
+    private static final String HISTORY_END = "] --- Fin de l'historique ---";
+    // Avis du serveur pour une commande de liste refusée par la limite de débit (politique reject)
+    private static final String LIST_REJECTED = "] Limite de debit atteinte (list :";
+
+    private final Options options;
+    private final Listener listener;
+    private final Loop loop;
+    private final InetSocketAddress address;
+    private final FrameCodec.Listener frames = new FrameCodec.Listener() {
+        // Le décodage s'arrête si la ligne a fermé la connexion (refus)
+        @Override
+        public boolean onLine(String line) {
+            handleLine(line);
+            return channel != null;
+        }
+
+        @Override
+        public boolean onFrame(int type, byte[] payload, int offset, int length) {
+            if (type == FrameCodec.LINE) {
+                handleLine(FrameCodec.text(payload, offset, length));
+            } else if (type == FrameCodec.HISTORY && length >= 8) {
+                // Une ligne déjà reçue (rejeu qui chevauche la diffusion) est ignorée
+                if (received.accept(FrameCodec.historySequence(payload, offset))) {
+                    listener.onMessage(ChatClient.this, FrameCodec.text(payload, offset + 8, length - 8));
+                }
+            }
+            return channel != null;
+        }
+    };
+
+    // État de la connexion, manipulé uniquement par la boucle
+    private SocketChannel channel;
+    private SelectionKey key;
+    private FrameCodec.Decoder decoder;
+    private String identity;
+    private boolean identitySent;
+    private boolean closing;
+    private boolean closeAfterFlush;
+    private boolean dirty;
+    private final ArrayDeque<Write> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    // Réponses attendues à /list, dans l'ordre des demandes
+    private final ArrayDeque<CompletableFuture<Map<Integer, String>>> pendingLists = new ArrayDeque<>();
+    private CompletableFuture<String> connectFuture;
+    private final ArrayDeque<CompletableFuture<Void>> closeWaiters = new ArrayDeque<>();
+    private final Map<Integer, String> presence = new LinkedHashMap<>();
+    private long presenceVersion = -1;
+    private boolean presenceResyncRequested;
+    // Séquences d'historique reçues, pour écarter les doublons et reprendre sans perte
+    private final ReceivedSequences received = new ReceivedSequences();
+    private long reconnectDelay;
+    // Incrémenté à chaque connect/disconnect : une reconnexion programmée plus tôt est abandonnée
+    private long session;
+    // Incrémenté à chaque ouverture de connexion, pour le délai de poignée de main
+    private long attempts;
+
+    // Lisibles depuis n'importe quel thread
+    private volatile boolean accepted;
+    private volatile String pseudo = "";
+    private volatile int clientNumber;
+    private volatile String sessionToken;
+
+    ChatClient(Options options, Listener listener) {
+        this(options, listener, Group.shared());
+    }
+
+    ChatClient(Options options, Listener listener, Group group) {
+        this.options = options;
+        this.listener = listener;
+        this.loop = group.nextLoop();
+        this.address = new InetSocketAddress(options.host, options.port);
+        this.reconnectDelay = options.reconnectMinDelayMillis;
+    }
+
+    // Ouvre une session avec la ligne d'identité (AUTH:, REGISTER:, RESUME: ou pseudo anonyme,
+    // voir AuthService). La future donne le pseudo accepté, ou échoue (refus, serveur absent).
+    CompletableFuture<String> connect(String identityLine) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        loop.execute(() -> {
+            if (channel != null) {
+                result.completeExceptionally(new IllegalStateException("Deja connecte"));
+                return;
+            }
+            session++;
+            connectFuture = result;
+            sessionToken = null;
+            received.reset();
+            reconnectDelay = options.reconnectMinDelayMillis;
+            open(identityLine);
+        });
+        return result;
+    }
+
+    // Départ volontaire : "exit" (le serveur révoque le jeton), puis fermeture sans reprise.
+    // La future est complétée une fois la connexion fermée.
+    CompletableFuture<Void> disconnect() {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        loop.execute(() -> {
+            session++;
+            sessionToken = null;
+            if (channel == null) {
+                closed.complete(null);
+                return;
+            }
+            closeWaiters.add(closed);
+            if (closing) {
+                return;
+            }
+            if (!identitySent) {
+                closing = true;
+                shutdown(null);
+                return;
+            }
+            enqueue(new Write(encode(FrameCodec.COMMAND, "exit")));
+            closing = true;
+            closeAfterFlush = true;
+        });
+        return closed;
+    }
+
+    // Envois en pipeline : mis en file sans attendre de réponse, écrits par lots par la boucle.
+    // Avant la poignée de main, ils attendent l'envoi de l'identité ; hors connexion, ils échouent.
+    CompletableFuture<Void> sendMessage(String text) {
+        return submit(encode(FrameCodec.CHAT, text));
+    }
+
+    CompletableFuture<Void> sendPrivate(String target, String text) {
+        return submit(options.binary ? FrameCodec.encodePrivate(target, text) : textLine("@" + target + " " + text));
+    }
+
+    CompletableFuture<Void> sendCommand(String command) {
+        return submit(encode(FrameCodec.COMMAND, command));
+    }
+
+    // Saisie libre, interprétée comme dans la zone de saisie : @pseudo message, /commande, exit.
+    // Une saisie en @ sans message échoue ici : elle ne doit jamais partir en message public.
+    CompletableFuture<Void> sendInput(String input) {
+        if (input.startsWith("@")) {
+            int space = input.indexOf(' ');
+            if (space <= 1) {
+                CompletableFuture<Void> refused = new CompletableFuture<>();
+                refused.completeExceptionally(new IllegalArgumentException("Format incorrect. Utilisez: @<pseudo> <message>"));
+                return refused;
+            }
+            return sendPrivate(input.substring(1, space), input.substring(space + 1));
+        }
+        if (input.startsWith("/") || input.equalsIgnoreCase("exit")) {
+            return sendCommand(input);
+        }
+        return sendMessage(input);
+    }
+
+    CompletableFuture<Void> createConference(String name) {
+        return sendCommand("CREATE_CONFERENCE:" + name);
+    }
+
+    CompletableFuture<Void> createGroup(String name) {
+        return sendCommand("CREATE_GROUP:" + name);
+    }
+
+    // /list : les autres clients connectés (numéro -> pseudo). La ligne de réponse est aussi
+    // transmise à onMessage. Échoue si le serveur refuse la demande (limite de débit, reject).
+    CompletableFuture<Map<Integer, String>> requestClientList() {
+        CompletableFuture<Map<Integer, String>> result = new CompletableFuture<>();
+        Write write = new Write(encode(FrameCodec.COMMAND, "/list"));
+        loop.execute(() -> {
+            enqueue(write);
+            if (write.future.isCompletedExceptionally()) {
+                write.future.whenComplete((ignored, error) -> result.completeExceptionally(error));
+            } else {
+                pendingLists.addLast(result);
+            }
+        });
+        return result;
+    }
+
+    boolean isAccepted() {
+        return accepted;
+    }
+
+    String getPseudo() {
+        return pseudo;
+    }
+
+    int getClientNumber() {
+        return clientNumber;
+    }
+
+    String getSessionToken() {
+        return sessionToken;
+    }
+
+    private CompletableFuture<Void> submit(byte[] data) {
+        Write write = new Write(data);
+        loop.execute(() -> enqueue(write));
+        return write.future;
+    }
+
+    private byte[] encode(int frameType, String text) {
+        return options.binary ? FrameCodec.encode(frameType, text) : textLine(text);
+    }
+
+    private static byte[] textLine(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void open(String identityLine) {
+        identity = identityLine;
+        decoder = new FrameCodec.Decoder();
+        identitySent = false;
+        closing = false;
+        closeAfterFlush = false;
+        presence.clear();
+        presenceVersion = -1;
+        presenceResyncRequested = false;
+        try {
+            if (address.isUnresolved()) {
+                throw new IOException("Hote inconnu : " + address.getHostString());
+            }
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected = channel.connect(address);
+            key = channel.register(loop.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if (connected) {
+                listener.onConnected(this);
+            }
+        } catch (IOException e) {
+            shutdown(e);
+            return;
+        }
+        // Une connexion acceptée par le système mais jamais servie (file d'attente du serveur
+        // saturée, serveur figé) ne doit pas laisser connect() ou la reprise en suspens
+        long attempt = ++attempts;
+        loop.schedule(options.handshakeTimeoutMillis, () -> {
+            if (attempt == attempts && channel != null && !accepted) {
+                shutdown(new IOException("Pas de reponse du serveur apres " + options.handshakeTimeoutMillis + " ms"));
+            }
+        });
+    }
+
+    private void handle(SelectionKey readyKey) {
+        // Clé annulée plus tôt dans le même tour (délai dépassé, fermeture)
+        if (readyKey != key || !readyKey.isValid()) {
+            return;
+        }
+        try {
+            if (readyKey.isConnectable()) {
+                channel.finishConnect();
+                readyKey.interestOps(SelectionKey.OP_READ);
+                listener.onConnected(this);
+            }
+            if (readyKey.isValid() && readyKey.isReadable()) {
+                read();
+            }
+            if (readyKey.isValid() && readyKey.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            shutdown(e);
+        }
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buffer = loop.readBuffer;
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            throw new EOFException("Connexion fermee par le serveur");
+        }
+        buffer.flip();
+        decoder.feed(buffer, frames);
+    }
+
+    private void handleLine(String line) {
+        if (line.equals("REQUEST_PSEUDO")) {
+            sendIdentity();
+        } else if (line.equals(FrameCodec.NEGOTIATION)) {
+            decoder.switchToBinary();
+        } else if (line.equals(FrameCodec.NEGOTIATION_DEFLATE)) {
+            decoder.switchToBinary();
+            decoder.enableDecompression();
+        } else if (line.startsWith("CLIENT_NUMBER:")) {
+            try {
+                clientNumber = Integer.parseInt(line.substring("CLIENT_NUMBER:".length()).trim());
+            } catch (NumberFormatException e) {
+                listener.onMessage(this, line);
+            }
+        } else if (line.startsWith("PSEUDO_ACCEPTED:")) {
+            pseudo = line.substring("PSEUDO_ACCEPTED:".length()).trim();
+            accepted = true;
+            reconnectDelay = options.reconnectMinDelayMillis;
+            listener.onAccepted(this, pseudo, clientNumber);
+            if (connectFuture != null) {
+                connectFuture.complete(pseudo);
+                connectFuture = null;
+            }
+        } else if (line.startsWith("SESSION_TOKEN:")) {
+            sessionToken = line.substring("SESSION_TOKEN:".length()).trim();
+        } else if (line.startsWith("HISTORY_RESUMED:")) {
+            String[] parts = line.split(":");
+            try {
+                received.resumedFrom(Long.parseLong(parts[1]));
+                listener.onHistoryResumed(this, Integer.parseInt(parts[parts.length - 1]));
+            } catch (NumberFormatException e) {
+                listener.onMessage(this, line);
+            }
+        } else if (line.startsWith("AUTH_FAILED:")) {
+            String reason = line.substring("AUTH_FAILED:".length());
+            // Pas de reconnexion automatique après un refus ; on ferme sans attendre le serveur,
+            // pour qu'un nouvel essai (autre mot de passe) puisse suivre immédiatement
+            sessionToken = null;
+            listener.onRefused(this, reason);
+            shutdown(new IOException("Connexion refusee : " + reason));
+        } else if (line.startsWith("PRESENCE_SNAPSHOT:")) {
+            applyPresenceSnapshot(line);
+        } else if (line.startsWith("PRESENCE_JOIN:") || line.startsWith("PRESENCE_LEAVE:")) {
+            applyPresenceDelta(line);
+        } else if (line.startsWith("CONFERENCE_CREATED:")) {
+            listener.onConferenceCreated(this, line.substring("CONFERENCE_CREATED:".length()), false);
+        } else if (line.startsWith("GROUP_CREATED:")) {
+            listener.onConferenceCreated(this, line.substring("GROUP_CREATED:".length()), true);
+        } else {
+            int list = line.indexOf(CLIENT_LIST);
+            if (line.endsWith(HISTORY_END)) {
+                received.replayEnded();
+            } else if (list >= 0) {
+                CompletableFuture<Map<Integer, String>> request = pendingLists.poll();
+                if (request != null) {
+                    request.complete(parseClients(line.substring(list + CLIENT_LIST.length())));
+                }
+            } else if (line.contains(LIST_REJECTED)) {
+                // Un serveur qui limite encore /presence : la resynchronisation pourra être redemandée
+                presenceResyncRequested = false;
+                // Les réponses arrivent dans l'ordre des demandes : le refus est celui de la plus ancienne
+                CompletableFuture<Map<Integer, String>> request = pendingLists.poll();
+                if (request != null) {
+                    request.completeExceptionally(new IOException(line.substring(line.indexOf(']') + 2)));
+                }
+            }
+            listener.onMessage(this, line);
+        }
+    }
+
+    // Réponse à REQUEST_PSEUDO : en binaire, la ligne de négociation est suivie directement
+    // de la trame HELLO. Elle passe devant les envois déjà en file, libérés à cet instant.
+    private void sendIdentity() {
+        byte[] data;
+        if (options.binary) {
+            byte[] negotiation = ((options.compression ? FrameCodec.NEGOTIATION_DEFLATE : FrameCodec.NEGOTIATION) + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            byte[] hello = FrameCodec.encode(FrameCodec.HELLO, identity);
+            data = new byte[negotiation.length + hello.length];
+            System.arraycopy(negotiation, 0, data, 0, negotiation.length);
+            System.arraycopy(hello, 0, data, negotiation.length, hello.length);
+        } else {
+            data = textLine(identity);
+        }
+        identity = null;
+        Write write = new Write(data);
+        pending.addFirst(write);
+        pendingBytes += data.length;
+        identitySent = true;
+        markDirty();
+    }
+
+    private void enqueue(Write write) {
+        if (channel == null || closing) {
+            write.future.completeExceptionally(new IOException("Non connecte"));
+            return;
+        }
+        int length = write.buffer.remaining();
+        if (pendingBytes + length > options.maxPendingBytes) {
+            write.future.completeExceptionally(new IOException("File d'envoi pleine (" + pendingBytes + " octets en attente)"));
+            return;
+        }
+        pending.addLast(write);
+        pendingBytes += length;
+        markDirty();
+    }
+
+    private void markDirty() {
+        if (!dirty && identitySent) {
+            dirty = true;
+            loop.dirty.addLast(this);
+        }
+    }
+
+    // Écriture groupée (gathering) des envois en attente ; le reste attend OP_WRITE
+    private void flush() {
+        if (channel == null || !identitySent) {
+            return;
+        }
+        try {
+            ByteBuffer[] buffers = loop.gather;
+            while (!pending.isEmpty()) {
+                int count = 0;
+                for (Write write : pending) {
+                    buffers[count++] = write.buffer;
+                    if (count == buffers.length) {
+                        break;
+                    }
+                }
+                pendingBytes -= channel.write(buffers, 0, count);
+                boolean blocked = buffers[count - 1].hasRemaining();
+                Arrays.fill(buffers, 0, count, null);
+                Write head;
+                while ((head = pending.peekFirst()) != null && !head.buffer.hasRemaining()) {
+                    pending.pollFirst().future.complete(null);
+                }
+                if (blocked) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (closeAfterFlush) {
+                shutdown(null);
+            }
+        } catch (IOException e) {
+            shutdown(e);
+        }
+    }
+
+    // Fermeture de la connexion ; cause null pour un départ volontaire. Les envois et
+    // demandes en attente échouent, puis la reprise de session est programmée si possible.
+    private void shutdown(IOException cause) {
+        if (channel == null) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Fermeture best-effort
+        }
+        channel = null;
+        accepted = false;
+        identitySent = false;
+        IOException failure = cause != null ? cause : new IOException("Connexion fermee");
+        Write write;
+        while ((write = pending.poll()) != null) {
+            write.future.completeExceptionally(failure);
+        }
+        pendingBytes = 0;
+        CompletableFuture<Map<Integer, String>> request;
+        while ((request = pendingLists.poll()) != null) {
+            request.completeExceptionally(failure);
+        }
+        if (connectFuture != null) {
+            connectFuture.completeExceptionally(failure);
+            connectFuture = null;
+        }
+        boolean voluntary = closing;
+        closing = false;
+        closeAfterFlush = false;
+        listener.onDisconnected(this, voluntary ? null : failure);
+        CompletableFuture<Void> waiter;
+        while ((waiter = closeWaiters.poll()) != null) {
+            waiter.complete(null);
+        }
+        if (!voluntary && options.autoReconnect && sessionToken != null && loop.running) {
+            scheduleReconnect();
+        }
+    }
+
+    // Reprise après une coupure : RESUME avec le jeton et la dernière séquence reçue, le
+    // serveur ne renvoie que les messages manqués. Un jeton refusé met fin aux tentatives.
+    private void scheduleReconnect() {
+        long delay = reconnectDelay;
+        reconnectDelay = Math.min(delay * 2, options.reconnectMaxDelayMillis);
+        long attempt = session;
+        listener.onReconnecting(this, delay);
+        loop.schedule(delay, () -> {
+            String token = sessionToken;
+            if (attempt != session || channel != null || token == null) {
+                return;
+            }
+            long sequence = received.resumeSequence();
+            open(AuthService.RESUME + token + (sequence >= 0 ? ":" + sequence : ""));
+        });
+    }
+
+    // Instantané de présence : PRESENCE_SNAPSHOT:<version>:<num>:<pseudo>,<num>:<pseudo>...
+    private void applyPresenceSnapshot(String snapshot) {
+        int versionStart = snapshot.indexOf(':') + 1;
+        int versionEnd = snapshot.indexOf(':', versionStart);
+        if (versionEnd < 0) {
+            return;
+        }
+        try {
+            presenceVersion = Long.parseLong(snapshot.substring(versionStart, versionEnd));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        presenceResyncRequested = false;
+        presence.clear();
+        presence.putAll(parseClients(snapshot.substring(versionEnd + 1)));
+        listener.onPresenceSnapshot(this, Collections.unmodifiableMap(new LinkedHashMap<>(presence)));
+    }
+
+    // Delta de présence : PRESENCE_JOIN|PRESENCE_LEAVE:<version>:<num>:<pseudo>
+    // Appliqué seulement s'il suit exactement la version connue ; en cas de trou, on demande un instantané
+    private void applyPresenceDelta(String delta) {
+        int versionStart = delta.indexOf(':') + 1;
+        int versionEnd = delta.indexOf(':', versionStart);
+        int numberEnd = delta.indexOf(':', versionEnd + 1);
+        if (versionEnd < 0 || numberEnd < 0) {
+            return;
+        }
+        long version;
+        int number;
+        try {
+            version = Long.parseLong(delta.substring(versionStart, versionEnd));
+            number = Integer.parseInt(delta.substring(versionEnd + 1, numberEnd));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (version <= presenceVersion) {
+            return; // déjà inclus dans l'instantané
+        }
+        if (presenceVersion < 0 || version != presenceVersion + 1) {
+            if (!presenceResyncRequested) {
+                presenceResyncRequested = true;
+                enqueue(new Write(encode(FrameCodec.COMMAND, "/presence")));
+            }
+            return;
+        }
+        presenceVersion = version;
+        String name = delta.substring(numberEnd + 1);
+        if (delta.startsWith("PRESENCE_JOIN:")) {
+            presence.put(number, name);
+            listener.onUserJoined(this, number, name);
+        } else {
+            String removed = presence.remove(number);
+            if (removed != null) {
+                listener.onUserLeft(this, number, removed);
+            }
+        }
+    }
+
+    // Liste "<num>:<pseudo>,<num>:<pseudo>..." ; les entrées invalides sont ignorées
+    private static Map<Integer, String> parseClients(String entries) {
+        Map<Integer, String> parsed = new LinkedHashMap<>();
+        for (String entry : entries.split(",")) {
+            String trimmed = entry.trim();
+            int sep = trimmed.indexOf(':');
+            if (sep > 0) {
+                try {
+                    parsed.put(Integer.parseInt(trimmed.substring(0, sep)), trimmed.substring(sep + 1));
+                } catch (NumberFormatException e) {
+                    // Ignorer les entrées invalides
+                }
+            }
+        }
+        return parsed;
+    }
+}
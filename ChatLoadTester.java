@@ -0,0 +1,763 @@
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Générateur de charge sans interface : simule des milliers de clients EchoClientGUI
+// (REQUEST_PSEUDO -> PSEUDO_ACCEPTED, messages publics, @pseudo, /list, reconnexions)
+// répartis sur quelques boucles NIO. Chaque message porte son instant d'envoi
+// (System.nanoTime(), même JVM pour l'émetteur et les destinataires) : la latence de bout
+// en bout est mesurée à la réception. Le rapport (JSON + une ligne CSV par campagne)
+// permet de comparer les modes du serveur, par exemple --label=blocking puis --label=nio.
+public class ChatLoadTester {
+
+    // Paramètres de la campagne (--cle=valeur, comme ServerConfig)
+    static final class Options {
+        String host = "localhost";
+        int port = 12345;
+        int clients = 100;
+        int warmupSeconds = 5;
+        int durationSeconds = 60;
+        int progressSeconds = 5;
+        double connectRate = 200;   // nouvelles connexions par seconde pendant la montée en charge
+        double messageRate = 1;     // envois par client et par seconde (arrivées de Poisson)
+        double privateRatio = 0.1;  // part des envois en @pseudo
+        double listRatio = 0.02;    // part des envois en /list
+        double churnRate = 0;       // reconnexions par client et par seconde
+        int payloadBytes = 32;      // remplissage ajouté à chaque message
+        boolean binary = false;     // tramage binaire négocié (FRAMING:BINARY)
+        boolean compression = false; // et compression serveur -> client (FRAMING:BINARY+DEFLATE)
+        int loops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        long maxPendingBytes = 1024 * 1024; // au-delà, l'envoi est sauté (serveur qui ne lit plus)
+        String pseudoPrefix = "bot";
+        String label = "run";
+        String report = null;       // par défaut loadtest-<label>.json
+        String summary = "loadtest.csv";
+
+        static Options fromArgs(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Argument invalide : " + arg + " (attendu --cle=valeur)");
+                }
+                int eq = arg.indexOf('=');
+                String key = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+                String value = eq < 0 ? "true" : arg.substring(eq + 1);
+                switch (key) {
+                    case "host":
+                        options.host = value;
+                        break;
+                    case "port":
+                        options.port = Integer.parseInt(value);
+                        break;
+                    case "clients":
+                        options.clients = Integer.parseInt(value);
+                        break;
+                    case "warmup-s":
+                        options.warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "duration-s":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "progress-s":
+                        options.progressSeconds = Integer.parseInt(value);
+                        break;
+                    case "connect-rate":
+                        options.connectRate = Double.parseDouble(value);
+                        break;
+                    case "rate":
+                        options.messageRate = Double.parseDouble(value);
+                        break;
+                    case "private-ratio":
+                        options.privateRatio = Double.parseDouble(value);
+                        break;
+                    case "list-ratio":
+                        options.listRatio = Double.parseDouble(value);
+                        break;
+                    case "churn":
+                        options.churnRate = Double.parseDouble(value);
+                        break;
+                    case "payload":
+                        options.payloadBytes = Integer.parseInt(value);
+                        break;
+                    case "framing":
+                        options.compression = value.equalsIgnoreCase("deflate");
+                        options.binary = options.compression || value.equalsIgnoreCase("binary");
+                        break;
+                    case "loops":
+                        options.loops = Integer.parseInt(value);
+                        break;
+                    case "max-pending-bytes":
+                        options.maxPendingBytes = Long.parseLong(value);
+                        break;
+                    case "pseudo-prefix":
+                        options.pseudoPrefix = value;
+                        break;
+                    case "label":
+                        options.label = value;
+                        break;
+                    case "report":
+                        options.report = value;
+                        break;
+                    case "summary":
+                        options.summary = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Option inconnue : --" + key);
+                }
+            }
+            if (options.report == null) {
+                options.report = "loadtest-" + options.label + ".json";
+            }
+            return options;
+        }
+
+        String framing() {
+            return compression ? "deflate" : binary ? "binary" : "text";
+        }
+    }
+
+    private final Options options;
+    private final InetSocketAddress address;
+    // Préfixe des messages mesurés : "lt:<campagne>:" suivi de l'instant d'envoi en nanosecondes.
+    // L'identifiant de campagne écarte les messages d'anciennes campagnes rejoués par l'historique.
+    private final String marker;
+    private final String padding;
+    // Pseudos des clients prêts, pour choisir les destinataires des messages privés
+    private final AtomicReferenceArray<String> readyPseudos;
+    private final AtomicInteger readyClients = new AtomicInteger(0);
+    private volatile boolean running = true;
+
+    // Mesures sur la fenêtre (remises à zéro après la chauffe)
+    private final LatencyHistogram publicLatency = new LatencyHistogram();
+    private final LatencyHistogram privateLatency = new LatencyHistogram();
+    private final LatencyHistogram listLatency = new LatencyHistogram();
+    private final LongAdder publicSent = new LongAdder();
+    private final LongAdder privateSent = new LongAdder();
+    private final LongAdder listSent = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder backpressureSkips = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder churned = new LongAdder();
+    // Connexions : toute la campagne, montée en charge comprise
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LongAdder connectFailures = new LongAdder();
+
+    ChatLoadTester(Options options) {
+        this.options = options;
+        this.address = new InetSocketAddress(options.host, options.port);
+        this.marker = "lt:" + Long.toString(ThreadLocalRandom.current().nextLong(1L << 40), 36) + ":";
+        StringBuilder fill = new StringBuilder(options.payloadBytes + 1);
+        if (options.payloadBytes > 0) {
+            fill.append(' ');
+            for (int i = 0; i < options.payloadBytes; i++) {
+                fill.append((char) ('a' + i % 26));
+            }
+        }
+        this.padding = fill.toString();
+        this.readyPseudos = new AtomicReferenceArray<>(options.clients);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ChatLoadTester(Options.fromArgs(args)).run();
+    }
+
+    void run() throws IOException, InterruptedException {
+        System.out.println("Campagne '" + options.label + "' : " + options.clients + " clients vers " + address
+                + ", " + options.messageRate + " envois/s/client, tramage " + (options.compression ? "binaire compresse" : options.binary ? "binaire" : "texte")
+                + ", " + options.loops + " boucles");
+
+        Driver[] drivers = new Driver[Math.max(1, options.loops)];
+        for (int i = 0; i < drivers.length; i++) {
+            drivers[i] = new Driver(i);
+        }
+        // Montée en charge : les connexions sont étalées au rythme connectRate
+        long start = System.nanoTime();
+        for (int id = 0; id < options.clients; id++) {
+            Driver driver = drivers[id % drivers.length];
+            SimClient client = new SimClient(id, driver);
+            client.nextAction = start + (long) (id * 1e9 / Math.max(1e-3, options.connectRate));
+            driver.schedule.add(client);
+        }
+        for (Driver driver : drivers) {
+            driver.thread.start();
+        }
+
+        Progress progress = new Progress();
+        sleepWithProgress(options.warmupSeconds, progress, "chauffe");
+        resetWindow();
+        long windowStart = System.nanoTime();
+        progress.reset();
+        sleepWithProgress(options.durationSeconds, progress, "mesure");
+        double windowSeconds = (System.nanoTime() - windowStart) / 1e9;
+
+        running = false;
+        for (Driver driver : drivers) {
+            driver.selector.wakeup();
+        }
+        for (Driver driver : drivers) {
+            driver.thread.join(5000);
+        }
+
+        String report = jsonReport(windowSeconds);
+        Files.write(Paths.get(options.report), report.getBytes(StandardCharsets.UTF_8));
+        if (!options.summary.isEmpty()) {
+            appendSummary(windowSeconds);
+        }
+        printReport(windowSeconds);
+        System.out.println("Rapport ecrit dans " + options.report
+                + (options.summary.isEmpty() ? "" : ", resume ajoute a " + options.summary));
+    }
+
+    private void resetWindow() {
+        publicLatency.reset();
+        privateLatency.reset();
+        listLatency.reset();
+        publicSent.reset();
+        privateSent.reset();
+        listSent.reset();
+        bytesOut.reset();
+        bytesIn.reset();
+        backpressureSkips.reset();
+        disconnects.reset();
+        churned.reset();
+    }
+
+    // Affiche l'avancement toutes les progressSeconds secondes
+    private void sleepWithProgress(int seconds, Progress progress, String phase) throws InterruptedException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long step = Math.max(1, options.progressSeconds) * 1_000_000_000L;
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            Thread.sleep(Math.max(1, Math.min(remaining, step) / 1_000_000));
+            progress.print(phase);
+        }
+    }
+
+    // Débits sur l'intervalle écoulé depuis le dernier affichage
+    private final class Progress {
+        private long lastTime;
+        private long lastSent;
+        private long lastDelivered;
+
+        Progress() {
+            reset();
+        }
+
+        void reset() {
+            lastTime = System.nanoTime();
+            lastSent = sentCount();
+            lastDelivered = deliveredCount();
+        }
+
+        void print(String phase) {
+            long now = System.nanoTime();
+            long sent = sentCount();
+            long delivered = deliveredCount();
+            double seconds = Math.max(1e-9, (now - lastTime) / 1e9);
+            System.out.println(String.format(Locale.ROOT,
+                    "[%s] prets %d/%d, envois %.0f/s, livraisons %.0f/s, public p99 %.2f ms, echecs connexion %d",
+                    phase, readyClients.get(), options.clients, (sent - lastSent) / seconds,
+                    (delivered - lastDelivered) / seconds, publicLatency.percentile(0.99) / 1e6,
+                    connectFailures.sum()));
+            lastTime = now;
+            lastSent = sent;
+            lastDelivered = delivered;
+        }
+    }
+
+    private long sentCount() {
+        return publicSent.sum() + privateSent.sum() + listSent.sum();
+    }
+
+    private long deliveredCount() {
+        return publicLatency.count() + privateLatency.count() + listLatency.count();
+    }
+
+    // Une boucle NIO : connexions, lectures, écritures et échéancier des envois de ses clients
+    private final class Driver implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        // Prochaine action de chaque client (connexion ou envoi) ; un client y figure au plus une fois
+        final PriorityQueue<SimClient> schedule = new PriorityQueue<>(
+                (a, b) -> Long.compare(a.nextAction, b.nextAction));
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        Driver(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "charge-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long now = System.nanoTime();
+                    SimClient next;
+                    while ((next = schedule.peek()) != null && next.nextAction <= now) {
+                        schedule.poll();
+                        next.act(now);
+                    }
+                    long waitNanos = next == null ? 100_000_000L : Math.min(100_000_000L, next.nextAction - now);
+                    int ready = waitNanos < 1_000_000L ? selector.selectNow() : selector.select(waitNanos / 1_000_000L);
+                    if (ready > 0) {
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            ((SimClient) key.attachment()).handle(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Boucle " + thread.getName() + " arretee : " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                        // Fermeture best-effort
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // Fermeture best-effort
+                }
+            }
+        }
+    }
+
+    // Un client simulé, entièrement manipulé par le thread de sa boucle
+    private final class SimClient implements FrameCodec.Listener {
+        final int id;
+        final Driver driver;
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        // Instants d'envoi des /list sans réponse (les réponses arrivent dans l'ordre)
+        final ArrayDeque<Long> pendingLists = new ArrayDeque<>();
+        SocketChannel channel;
+        SelectionKey key;
+        FrameCodec.Decoder decoder;
+        long pendingBytes;
+        long connectStart;
+        boolean accepted;
+        boolean ready;
+        String pseudo;
+        long nextAction;
+        long nextSend;
+        long nextChurn;
+
+        SimClient(int id, Driver driver) {
+            this.id = id;
+            this.driver = driver;
+        }
+
+        // Action échue dans l'échéancier : connexion, reconnexion ou envoi
+        void act(long now) {
+            try {
+                if (channel == null) {
+                    connect();
+                } else if (ready && now >= nextChurn) {
+                    churned.increment();
+                    close();
+                    reschedule(now);
+                } else if (ready) {
+                    send();
+                    nextSend = now + nextInterval(options.messageRate);
+                    reschedule(Math.min(nextSend, nextChurn));
+                }
+            } catch (IOException e) {
+                fail();
+            }
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush();
+                }
+            } catch (IOException e) {
+                fail();
+            }
+        }
+
+        private void connect() throws IOException {
+            decoder = new FrameCodec.Decoder();
+            pending.clear();
+            pendingBytes = 0;
+            pendingLists.clear();
+            accepted = false;
+            ready = false;
+            connectStart = System.nanoTime();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean connected = channel.connect(address);
+            key = channel.register(driver.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        }
+
+        private void read() throws IOException {
+            ByteBuffer buffer = driver.readBuffer;
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Connexion fermee par le serveur");
+            }
+            bytesIn.add(read);
+            buffer.flip();
+            decoder.feed(buffer, this);
+        }
+
+        @Override
+        public boolean onLine(String line) throws IOException {
+            long now = System.nanoTime();
+            if (!accepted) {
+                if (line.equals("REQUEST_PSEUDO")) {
+                    sendIdentity();
+                } else if (line.equals(FrameCodec.NEGOTIATION)) {
+                    decoder.switchToBinary();
+                } else if (line.equals(FrameCodec.NEGOTIATION_DEFLATE)) {
+                    decoder.switchToBinary();
+                    decoder.enableDecompression();
+                } else if (line.startsWith("PSEUDO_ACCEPTED:")) {
+                    accepted = true;
+                    pseudo = line.substring("PSEUDO_ACCEPTED:".length()).trim();
+                    connectTime.record(now - connectStart);
+                }
+                return true;
+            }
+            if (!ready) {
+                // Fin de la séquence d'accueil (historique, liste, commandes) : début des envois
+                if (line.contains("] Commandes disponibles:")) {
+                    ready = true;
+                    readyPseudos.set(id, pseudo);
+                    readyClients.incrementAndGet();
+                    nextSend = now + nextInterval(options.messageRate);
+                    nextChurn = now + nextInterval(options.churnRate);
+                    reschedule(Math.min(nextSend, nextChurn));
+                }
+                // Les messages mesurés rejoués par l'historique sont comptés ci-dessous
+            }
+            int mark = line.indexOf(marker);
+            if (mark >= 0) {
+                long sentAt = parseNanos(line, mark + marker.length());
+                // Envoyé avant cette connexion : rejeu de l'historique, pas une livraison en direct
+                if (sentAt >= connectStart) {
+                    if (!line.contains("] [PRIVE] ")) {
+                        publicLatency.record(now - sentAt);
+                    } else if (!line.contains("] [PRIVE] -> ")) {
+                        privateLatency.record(now - sentAt);
+                    }
+                }
+            } else if (line.contains("] Liste des clients connectes:")) {
+                Long sentAt = pendingLists.poll();
+                if (sentAt != null) {
+                    listLatency.record(now - sentAt);
+                }
+            } else if (line.contains("] Limite de debit atteinte (list :")) {
+                // /list refusé (politique reject) : pas de réponse à attendre
+                pendingLists.poll();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onFrame(int type, byte[] payload, int offset, int length) throws IOException {
+            if (type == FrameCodec.LINE) {
+                return onLine(FrameCodec.text(payload, offset, length));
+            }
+            if (type == FrameCodec.HISTORY && length >= 8) {
+                return onLine(FrameCodec.text(payload, offset + 8, length - 8));
+            }
+            return true;
+        }
+
+        private void sendIdentity() throws IOException {
+            String requested = options.pseudoPrefix + id;
+            if (options.binary) {
+                byte[] negotiation = ((options.compression ? FrameCodec.NEGOTIATION_DEFLATE : FrameCodec.NEGOTIATION) + "\n")
+                        .getBytes(StandardCharsets.UTF_8);
+                byte[] hello = FrameCodec.encode(FrameCodec.HELLO, requested);
+                byte[] both = new byte[negotiation.length + hello.length];
+                System.arraycopy(negotiation, 0, both, 0, negotiation.length);
+                System.arraycopy(hello, 0, both, negotiation.length, hello.length);
+                write(both);
+            } else {
+                write(textLine(requested));
+            }
+        }
+
+        // Tirage pondéré : @pseudo, /list ou message public
+        private void send() throws IOException {
+            if (pendingBytes > options.maxPendingBytes) {
+                backpressureSkips.increment();
+                return;
+            }
+            double draw = ThreadLocalRandom.current().nextDouble();
+            if (draw < options.privateRatio) {
+                String target = pickTarget();
+                if (target != null) {
+                    String body = marker + System.nanoTime() + padding;
+                    write(options.binary ? FrameCodec.encodePrivate(target, body) : textLine("@" + target + " " + body));
+                    privateSent.increment();
+                    return;
+                }
+            } else if (draw < options.privateRatio + options.listRatio) {
+                pendingLists.add(System.nanoTime());
+                write(options.binary ? FrameCodec.encode(FrameCodec.COMMAND, "/list") : textLine("/list"));
+                listSent.increment();
+                return;
+            }
+            String body = marker + System.nanoTime() + padding;
+            write(options.binary ? FrameCodec.encode(FrameCodec.CHAT, body) : textLine(body));
+            publicSent.increment();
+        }
+
+        private String pickTarget() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int attempt = 0; attempt < 3 && options.clients > 1; attempt++) {
+                int other = random.nextInt(options.clients);
+                String target = readyPseudos.get(other);
+                if (other != id && target != null) {
+                    return target;
+                }
+            }
+            return null;
+        }
+
+        private void write(byte[] data) throws IOException {
+            bytesOut.add(data.length);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (pending.isEmpty()) {
+                channel.write(buffer);
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            pending.addLast(buffer);
+            pendingBytes += buffer.remaining();
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer head;
+            while ((head = pending.peekFirst()) != null) {
+                int written = channel.write(head);
+                pendingBytes -= written;
+                if (head.hasRemaining()) {
+                    return;
+                }
+                pending.pollFirst();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        // Coupure inattendue ou connexion refusée : nouvelle tentative une seconde plus tard
+        private void fail() {
+            if (accepted) {
+                disconnects.increment();
+            } else {
+                connectFailures.increment();
+            }
+            driver.schedule.remove(this);
+            close();
+            reschedule(System.nanoTime() + 1_000_000_000L);
+        }
+
+        private void close() {
+            if (ready) {
+                readyPseudos.set(id, null);
+                readyClients.decrementAndGet();
+            }
+            ready = false;
+            accepted = false;
+            if (key != null) {
+                key.cancel();
+                key = null;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Fermeture best-effort
+                }
+                channel = null;
+            }
+        }
+
+        private void reschedule(long at) {
+            if (running) {
+                nextAction = at;
+                driver.schedule.add(this);
+            }
+        }
+    }
+
+    private static byte[] textLine(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Délai exponentiel (arrivées de Poisson) ; taux nul : jamais
+    private static long nextInterval(double ratePerSecond) {
+        if (ratePerSecond <= 0) {
+            return Long.MAX_VALUE / 4;
+        }
+        return (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / ratePerSecond * 1e9);
+    }
+
+    private static long parseNanos(String line, int from) {
+        long value = 0;
+        boolean negative = from < line.length() && line.charAt(from) == '-';
+        for (int i = negative ? from + 1 : from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // ---------- Rapport ----------
+
+    private void printReport(double windowSeconds) {
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "=== Campagne '%s' : fenetre de mesure %.1f s ===", options.label, windowSeconds));
+        System.out.println(String.format(Locale.ROOT, "Envois : %.0f/s (public %d, prive %d, /list %d), sautes (file pleine) %d",
+                sentCount() / windowSeconds, publicSent.sum(), privateSent.sum(), listSent.sum(), backpressureSkips.sum()));
+        System.out.println(String.format(Locale.ROOT, "Livraisons : %.0f/s, recu %.1f Ko/s, envoye %.1f Ko/s",
+                deliveredCount() / windowSeconds, bytesIn.sum() / windowSeconds / 1e3, bytesOut.sum() / windowSeconds / 1e3));
+        System.out.println(String.format(Locale.ROOT, "Connexions : %d reussies, %d echecs, %d coupures, %d renouvellements",
+                connectTime.count(), connectFailures.sum(), disconnects.sum(), churned.sum()));
+        System.out.println(String.format(Locale.ROOT, "%-10s %10s %10s %10s %10s %10s %10s",
+                "(ms)", "nombre", "p50", "p90", "p99", "p99.9", "max"));
+        printLatencyRow("public", publicLatency);
+        printLatencyRow("prive", privateLatency);
+        printLatencyRow("/list", listLatency);
+        printLatencyRow("connexion", connectTime);
+    }
+
+    private static void printLatencyRow(String name, LatencyHistogram histogram) {
+        System.out.println(String.format(Locale.ROOT, "%-10s %10d %10.2f %10.2f %10.2f %10.2f %10.2f",
+                name, histogram.count(), histogram.percentile(0.50) / 1e6, histogram.percentile(0.90) / 1e6,
+                histogram.percentile(0.99) / 1e6, histogram.percentile(0.999) / 1e6, histogram.max() / 1e6));
+    }
+
+    private String jsonReport(double windowSeconds) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"label\": \"").append(escape(options.label)).append("\",\n");
+        json.append("  \"date\": \"").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\",\n");
+        json.append("  \"config\": {")
+                .append("\"host\": \"").append(escape(options.host)).append("\", ")
+                .append("\"port\": ").append(options.port).append(", ")
+                .append("\"clients\": ").append(options.clients).append(", ")
+                .append("\"framing\": \"").append(options.framing()).append("\", ")
+                .append("\"rate\": ").append(Double.toString(options.messageRate)).append(", ")
+                .append("\"privateRatio\": ").append(Double.toString(options.privateRatio)).append(", ")
+                .append("\"listRatio\": ").append(Double.toString(options.listRatio)).append(", ")
+                .append("\"churn\": ").append(Double.toString(options.churnRate)).append(", ")
+                .append("\"payload\": ").append(options.payloadBytes).append(", ")
+                .append("\"warmupSeconds\": ").append(options.warmupSeconds).append(", ")
+                .append("\"loops\": ").append(options.loops).append("},\n");
+        json.append("  \"windowSeconds\": ").append(number(windowSeconds)).append(",\n");
+        json.append("  \"throughput\": {")
+                .append("\"sentPerSecond\": ").append(number(sentCount() / windowSeconds)).append(", ")
+                .append("\"deliveredPerSecond\": ").append(number(deliveredCount() / windowSeconds)).append(", ")
+                .append("\"bytesInPerSecond\": ").append(number(bytesIn.sum() / windowSeconds)).append(", ")
+                .append("\"bytesOutPerSecond\": ").append(number(bytesOut.sum() / windowSeconds)).append("},\n");
+        json.append("  \"counts\": {")
+                .append("\"public\": ").append(publicSent.sum()).append(", ")
+                .append("\"private\": ").append(privateSent.sum()).append(", ")
+                .append("\"list\": ").append(listSent.sum()).append(", ")
+                .append("\"backpressureSkips\": ").append(backpressureSkips.sum()).append(", ")
+                .append("\"connectFailures\": ").append(connectFailures.sum()).append(", ")
+                .append("\"disconnects\": ").append(disconnects.sum()).append(", ")
+                .append("\"churned\": ").append(churned.sum()).append("},\n");
+        json.append("  \"latencyMicros\": {\n");
+        json.append("    \"public\": ").append(latencyJson(publicLatency)).append(",\n");
+        json.append("    \"private\": ").append(latencyJson(privateLatency)).append(",\n");
+        json.append("    \"list\": ").append(latencyJson(listLatency)).append(",\n");
+        json.append("    \"connect\": ").append(latencyJson(connectTime)).append("\n");
+        json.append("  }\n}\n");
+        return json.toString();
+    }
+
+    private static String latencyJson(LatencyHistogram histogram) {
+        return "{\"count\": " + histogram.count()
+                + ", \"mean\": " + number(histogram.mean() / 1e3)
+                + ", \"p50\": " + number(histogram.percentile(0.50) / 1e3)
+                + ", \"p90\": " + number(histogram.percentile(0.90) / 1e3)
+                + ", \"p99\": " + number(histogram.percentile(0.99) / 1e3)
+                + ", \"p999\": " + number(histogram.percentile(0.999) / 1e3)
+                + ", \"max\": " + number(histogram.max() / 1e3) + "}";
+    }
+
+    // Une ligne par campagne, en-tête écrit à la création du fichier
+    private void appendSummary(double windowSeconds) throws IOException {
+        boolean created = !Files.exists(Paths.get(options.summary));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(options.summary, true), StandardCharsets.UTF_8)) {
+            if (created) {
+                writer.write("label,date,clients,framing,rate,churn,sent_per_s,delivered_per_s,"
+                        + "public_p50_us,public_p99_us,public_p999_us,public_max_us,private_p99_us,list_p99_us,"
+                        + "connect_p50_us,connect_p99_us,connect_failures,disconnects,backpressure_skips\n");
+            }
+            writer.write(String.join(",",
+                    options.label.replace(',', ' '),
+                    LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                    Integer.toString(options.clients),
+                    options.framing(),
+                    Double.toString(options.messageRate),
+                    Double.toString(options.churnRate),
+                    number(sentCount() / windowSeconds),
+                    number(deliveredCount() / windowSeconds),
+                    number(publicLatency.percentile(0.50) / 1e3),
+                    number(publicLatency.percentile(0.99) / 1e3),
+                    number(publicLatency.percentile(0.999) / 1e3),
+                    number(publicLatency.max() / 1e3),
+                    number(privateLatency.percentile(0.99) / 1e3),
+                    number(listLatency.percentile(0.99) / 1e3),
+                    number(connectTime.percentile(0.50) / 1e3),
+                    number(connectTime.percentile(0.99) / 1e3),
+                    Long.toString(connectFailures.sum()),
+                    Long.toString(disconnects.sum()),
+                    Long.toString(backpressureSkips.sum())) + "\n");
+        }
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
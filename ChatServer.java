@@ -0,0 +1,1327 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+
+// Cœur du serveur de chat, indépendant de Swing : connexions, protocole, diffusion.
+// Les événements passent par le journal asynchrone ; la fenêtre EchoServerGUI n'en est
+// qu'un observateur optionnel (absente en mode --headless).
+public class ChatServer {
+
+    // File d'attente des connexions entrantes (utile lors d'un afflux de connexions)
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    // Modes d'exécution du serveur, choisis au démarrage (--mode=...)
+    enum ServerMode { BLOCKING, VIRTUAL, NIO }
+
+    private final AsyncLogger logger;
+    private ServerSocket serverSocket;
+    private NioServerEngine nioEngine;
+    private final ServerConfig config;
+    // Exécuteur des threads clients et rédacteurs en mode virtuel (null sinon)
+    private ExecutorService clientExecutor;
+    private AtomicInteger clientCounter = new AtomicInteger(0);
+    // Map pour stocker tous les clients connectés avec leurs pseudos
+    private Map<Integer, ClientInfo> clients = new ConcurrentHashMap<>();
+    // Annuaire pseudo (insensible à la casse) -> client, pour router les messages privés en O(1)
+    private final Map<String, ClientInfo> pseudoIndex = new ConcurrentHashMap<>();
+    // Les arrivées et départs modifient clients et pseudoIndex ensemble, sous ce verrou ;
+    // les lectures (diffusion, messages privés) restent sans verrou
+    private final ReentrantLock membershipLock = new ReentrantLock();
+    // Version de la présence, incrémentée à chaque arrivée/départ (sous membershipLock).
+    // Les clients reçoivent un instantané à la connexion puis des deltas PRESENCE_JOIN/LEAVE.
+    private long presenceVersion = 0;
+    // Formateur pour l'horodatage
+    private DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+    // Historique des messages : anneau sans verrou de capacité fixe (--history-size, 100 par défaut)
+    private final HistoryRing<EncodedLine> messageHistory;
+    // Place réservée dans la file d'envoi pour les lignes qui accompagnent l'historique
+    private static final int HISTORY_REPLAY_MARGIN = 64;
+    // Taille d'une page de /history <conference>
+    private static final int CONFERENCE_HISTORY_PAGE = 50;
+    static final EncodedLine REQUEST_PSEUDO = EncodedLine.of("REQUEST_PSEUDO");
+    // Accusé de négociation du tramage binaire : dernière ligne texte envoyée au client
+    static final EncodedLine FRAMING_ACK = EncodedLine.textOnly(FrameCodec.NEGOTIATION);
+    static final EncodedLine FRAMING_ACK_DEFLATE = EncodedLine.textOnly(FrameCodec.NEGOTIATION_DEFLATE);
+    // Compteurs et latences (JMX, commande /stats)
+    private final ServerMetrics metrics;
+    // Conférences et groupes ; les membres sont désignés par leur pseudo
+    private final ConferenceManager conferenceManager = new ConferenceManager();
+    // Comptes utilisateurs et authentification de la poignée de main (AUTH/REGISTER/RESUME)
+    private final UserManager userManager;
+    private final AuthService authService;
+    // Limites de débit par client, modifiables à chaud (JMX, /limit)
+    private final RateLimits rateLimits;
+    // Grappe de serveurs (--cluster) : bus vers les autres nœuds, null pour un serveur seul
+    private final ClusterBus cluster;
+    // Clients des autres nœuds, tels qu'annoncés sur le bus (modifiés sous membershipLock) :
+    // par numéro (uniques dans la grappe) et par pseudo, pour la présence et l'unicité des pseudos
+    private final Map<Integer, RemoteUser> remoteUsers = new ConcurrentHashMap<>();
+    private final Map<String, RemoteUser> remotePseudos = new ConcurrentHashMap<>();
+
+    // Client d'un autre nœud de la grappe
+    static final class RemoteUser {
+        final int node;
+        final int clientNumber;
+        final String pseudo;
+
+        RemoteUser(int node, int clientNumber, String pseudo) {
+            this.node = node;
+            this.clientNumber = clientNumber;
+            this.pseudo = pseudo;
+        }
+    }
+
+    // Informations d'un client. Les messages passent par une file d'envoi bornée,
+    // vidée par un rédacteur dédié (mode bloquant/virtuel) ou par la boucle NIO du client
+    static class ClientInfo {
+        final OutboundQueue outbound;
+        Socket socket;
+        NioServerEngine.Connection connection;
+        String pseudo;
+        // Compte authentifié (null pour une session anonyme) et jeton de session délivré
+        final String account;
+        final String sessionToken;
+        // Reprise de session (RESUME:) et dernière séquence d'historique reçue (-1 : inconnue)
+        final boolean resumed;
+        final long lastSequence;
+        // Seaux à jetons du client (voir admissionDelay)
+        final RateLimits.Budget budget = new RateLimits.Budget();
+        // Connexion fermée par une reprise de sa session (écrit sous membershipLock)
+        boolean replaced;
+        
+        ClientInfo(Socket socket, OutboundQueue outbound, AuthService.Result identity) {
+            this.socket = socket;
+            this.outbound = outbound;
+            this.pseudo = identity.username;
+            this.account = identity.authenticated ? identity.username : null;
+            this.sessionToken = identity.token;
+            this.resumed = identity.resumed;
+            this.lastSequence = identity.lastSequence;
+        }
+
+        ClientInfo(NioServerEngine.Connection connection, AuthService.Result identity) {
+            this.connection = connection;
+            this.outbound = connection.outbound();
+            this.pseudo = identity.username;
+            this.account = identity.authenticated ? identity.username : null;
+            this.sessionToken = identity.token;
+            this.resumed = identity.resumed;
+            this.lastSequence = identity.lastSequence;
+        }
+
+        boolean send(String message) {
+            return send(EncodedLine.of(message));
+        }
+
+        // Renvoie false si la file d'envoi était saturée : le client est alors déconnecté
+        boolean send(EncodedLine message) {
+            return send(message, true);
+        }
+
+        // Envoi sans jamais attendre, même avec la politique BLOCK (appel sous verrou)
+        boolean sendNoWait(EncodedLine message) {
+            return send(message, false);
+        }
+
+        private boolean send(EncodedLine message, boolean mayBlock) {
+            boolean accepted = connection != null
+                    ? connection.send(message, mayBlock)
+                    : outbound.offer(message, mayBlock);
+            if (!accepted) {
+                close();
+            }
+            return accepted;
+        }
+
+        int queueDepth() {
+            return outbound.depth();
+        }
+
+        void close() {
+            if (connection != null) {
+                connection.closeAsync();
+            } else {
+                outbound.close();
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Fermeture best-effort
+                }
+            }
+        }
+    }
+
+    public ChatServer(ServerConfig config, AsyncLogger logger) {
+        this.config = config;
+        this.logger = logger;
+        this.messageHistory = new HistoryRing<>(config.historySize);
+        this.metrics = new ServerMetrics(this);
+        logger.recordFlushTimes(metrics.logFlush);
+        this.userManager = new UserManager(config.dataDir);
+        userManager.recordFlushTimes(metrics.persistFlush);
+        this.authService = new AuthService(userManager, config, metrics.authentication);
+        this.rateLimits = new RateLimits(config);
+        this.cluster = config.isClustered() ? new ClusterBus(this, config, new ClusterEvents()) : null;
+    }
+
+    ServerConfig config() {
+        return config;
+    }
+
+    ServerMetrics metrics() {
+        return metrics;
+    }
+
+    void start() {
+        if (config.jmx) {
+            try {
+                metrics.registerMBeans();
+                rateLimits.registerMBean();
+            } catch (JMException e) {
+                log("Metriques JMX indisponibles : " + e.getMessage());
+            }
+        }
+        if (cluster != null) {
+            try {
+                cluster.start();
+            } catch (IOException e) {
+                log("Grappe : bus indisponible : " + e.getMessage());
+            }
+        }
+        if (config.mode == ServerMode.NIO) {
+            startNioServer();
+        } else {
+            startServer();
+        }
+    }
+
+    // Méthode pour démarrer le serveur (un thread par client, classique ou virtuel)
+    private void startServer() {
+        new Thread(() -> {
+            if (config.mode == ServerMode.VIRTUAL) {
+                clientExecutor = VirtualThreads.newPerTaskExecutor();
+                if (!VirtualThreads.isAvailable()) {
+                    log("Threads virtuels indisponibles sur cette JVM (Java 21+ requis), repli sur un pool de threads");
+                }
+            }
+            try {
+                serverSocket = new ServerSocket(config.port, ACCEPT_BACKLOG); 
+                log("Serveur en ecoute sur le port " + config.port + "...");
+                log("En attente de connexions clients...");
+
+                while (true) {
+                    Socket clientSocket = serverSocket.accept(); 
+                    int clientNumber = nextClientNumber(); 
+                    metrics.connectionsAccepted.increment();
+                    log("Client " + clientNumber + " connecte : " + clientSocket.getInetAddress());
+
+                    if (clientExecutor != null) {
+                        clientExecutor.execute(() -> handleClient(clientSocket, clientNumber));
+                    } else {
+                        new Thread(() -> handleClient(clientSocket, clientNumber)).start();
+                    }
+                }
+
+            } catch (IOException e) {
+                log("Erreur serveur : " + e.getMessage());
+            }
+        }).start();
+    }
+
+    // Méthode pour démarrer le serveur non bloquant (accepteur + boucles d'événements)
+    private void startNioServer() {
+        try {
+            nioEngine = new NioServerEngine(this, config, config.port);
+            nioEngine.start();
+            log("Serveur NIO en ecoute sur le port " + config.port + " (" + config.eventLoops + " boucles d'evenements)...");
+            log("En attente de connexions clients...");
+        } catch (IOException e) {
+            log("Erreur serveur : " + e.getMessage());
+        }
+    }
+
+    // Ligne d'identité reçue en réponse à REQUEST_PSEUDO (voir AuthService)
+    CompletableFuture<AuthService.Result> identify(String identity) {
+        return authService.identify(identity);
+    }
+
+    // Refus de la poignée de main, envoyé juste avant la fermeture de la connexion
+    EncodedLine authFailure(int clientNumber, AuthService.Result result) {
+        log("Client " + clientNumber + " : authentification refusee (" + result.error + ")");
+        return EncodedLine.of("AUTH_FAILED:" + result.error);
+    }
+
+    // Compression demandée par le client (FRAMING:BINARY+DEFLATE) et autorisée (--compression) :
+    // compresseur propre à la connexion, null sinon
+    FrameCodec.Compressor newCompressor(String negotiation) {
+        if (!config.compression || !negotiation.equals(FrameCodec.NEGOTIATION_DEFLATE)) {
+            return null;
+        }
+        return new FrameCodec.Compressor(config.compressionThreshold, metrics.compressionInput, metrics.compressionOutput);
+    }
+
+    // En grappe, les numéros restent uniques d'un nœud à l'autre : n * taille + rang
+    int nextClientNumber() {
+        return clientCounter.incrementAndGet() * config.clusterSize() + config.nodeIndex;
+    }
+
+    // Méthode pour obtenir l'horodatage actuel
+    private String getCurrentTimestamp() {
+        return LocalDateTime.now().format(timeFormatter);
+    }
+
+    // Ajoute une ligne à l'historique et la renvoie, encodée avec sa séquence, pour diffusion.
+    // L'ajout précède la diffusion : un client qui arrive entre les deux la reçoit au pire
+    // deux fois (rejeu puis diffusion), jamais zéro ; les clients binaires écartent le doublon
+    // grâce à la séquence.
+    EncodedLine addToHistory(String text) {
+        return messageHistory.appendSequenced(sequence -> EncodedLine.sequenced(text, sequence));
+    }
+
+    // Ligne publique (message, arrivée, départ) : historique, diffusion aux clients de ce
+    // nœud puis aux autres nœuds de la grappe, qui font de même chez eux
+    private EncodedLine publish(String text, int senderClientNumber) {
+        EncodedLine line = addToHistory(text);
+        broadcastMessage(line, senderClientNumber);
+        if (cluster != null) {
+            cluster.publish(text);
+        }
+        return line;
+    }
+
+    // Méthode pour envoyer l'historique à un client
+    void sendHistory(int clientNumber) {
+        long start = System.nanoTime();
+        ClientInfo clientInfo = clients.get(clientNumber);
+        // On ne rejoue pas plus que ce que la file d'envoi du client peut contenir
+        int replayLimit = Math.max(0, config.queueCapacity - HISTORY_REPLAY_MARGIN);
+        List<EncodedLine> snapshot = messageHistory.snapshot(replayLimit);
+        if (clientInfo != null && !snapshot.isEmpty()) {
+            String timestamp = getCurrentTimestamp();
+            clientInfo.send("[" + timestamp + "] --- Historique de la conversation ---");
+            
+            for (EncodedLine message : snapshot) {
+                clientInfo.send(message);
+            }
+            
+            clientInfo.send("[" + timestamp + "] --- Fin de l'historique ---");
+            metrics.historyReplay.record(System.nanoTime() - start);
+        }
+    }
+
+    // Reprise de session : seules les entrées postérieures à la dernière séquence reçue sont
+    // rejouées (HISTORY_RESUMED:<première séquence>:<nombre> puis les lignes), sans la liste
+    // des clients que l'instantané de présence remplace. Renvoie false si l'écart dépasse
+    // l'historique conservé ou la file d'envoi : synchronisation complète.
+    private boolean sendMissedHistory(ClientInfo clientInfo) {
+        long lastSequence = clientInfo.lastSequence;
+        if (!clientInfo.resumed || lastSequence < 0 || lastSequence >= messageHistory.nextSequence()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        int replayLimit = Math.max(0, config.queueCapacity - HISTORY_REPLAY_MARGIN);
+        List<EncodedLine> missed = messageHistory.since(lastSequence + 1);
+        if (missed == null || missed.size() > replayLimit) {
+            return false;
+        }
+        clientInfo.send("HISTORY_RESUMED:" + (lastSequence + 1) + ":" + missed.size());
+        for (EncodedLine message : missed) {
+            clientInfo.send(message);
+        }
+        metrics.historyReplay.record(System.nanoTime() - start);
+        return true;
+    }
+
+    // Méthode de gestion des messages du client (mode bloquant)
+    private void handleClient(Socket clientSocket, int clientNumber) {
+        OutboundQueue outbound = config.newOutboundQueue();
+        try (
+            InputStream in = clientSocket.getInputStream();
+            OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream())
+        ) {
+            // Demander le pseudo au client
+            metrics.bytesOut.add(REQUEST_PSEUDO.writeTo(out, false));
+            out.flush();
+            
+            // Lecture octet par octet (et non par BufferedReader) : rien n'est lu d'avance
+            // au-delà de la ligne de négociation, le passage au binaire est donc sans risque.
+            // Tampon réduit : en mode virtuel, des dizaines de milliers de connexions inactives
+            BlockingSession session = new BlockingSession(clientSocket, clientNumber, outbound, out);
+            byte[] chunk = new byte[1024];
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                metrics.bytesIn.add(read);
+                buffer.clear();
+                buffer.limit(read);
+                if (!session.decoder.feed(buffer, session)) {
+                    break;
+                }
+            }
+
+            unregisterClient(clientNumber);
+            clientSocket.close();
+            
+        } catch (IOException e) {
+            log("Erreur client " + clientNumber + " : " + e.getMessage());
+            unregisterClient(clientNumber);
+        } finally {
+            outbound.close();
+        }
+    }
+
+    // Poignée de main puis répartition des lignes/trames d'un client en mode bloquant
+    private class BlockingSession implements FrameCodec.Listener {
+        final FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        private final Socket socket;
+        private final int clientNumber;
+        private final OutboundQueue outbound;
+        private final OutputStream out;
+        private boolean pseudoReceived = false;
+        private FrameCodec.Compressor compressor;
+
+        BlockingSession(Socket socket, int clientNumber, OutboundQueue outbound, OutputStream out) {
+            this.socket = socket;
+            this.clientNumber = clientNumber;
+            this.outbound = outbound;
+            this.out = out;
+        }
+
+        @Override
+        public boolean onLine(String line) throws IOException {
+            if (!pseudoReceived) {
+                if (line.equals(FrameCodec.NEGOTIATION) || line.equals(FrameCodec.NEGOTIATION_DEFLATE)) {
+                    compressor = newCompressor(line);
+                    // Le rédacteur n'est pas encore démarré : l'accusé est écrit directement
+                    metrics.bytesOut.add((compressor != null ? FRAMING_ACK_DEFLATE : FRAMING_ACK).writeTo(out, false));
+                    out.flush();
+                    decoder.switchToBinary();
+                    return true;
+                }
+                return identify(line);
+            }
+            long delay = admissionDelay(clientNumber, line, false);
+            if (delay != 0 && !awaitAdmission(delay, () -> admissionDelay(clientNumber, line, true))) {
+                return true;
+            }
+            return handleClientLine(clientNumber, line);
+        }
+
+        @Override
+        public boolean onFrame(int type, byte[] payload, int offset, int length) throws IOException {
+            if (!pseudoReceived) {
+                if (type != FrameCodec.HELLO) {
+                    log("Client " + clientNumber + " : trame " + type + " recue avant le pseudo, deconnexion");
+                    return false;
+                }
+                return identify(FrameCodec.text(payload, offset, length));
+            }
+            long delay = admissionDelay(clientNumber, type, payload, offset, length, false);
+            if (delay != 0 && !awaitAdmission(delay, () -> admissionDelay(clientNumber, type, payload, offset, length, true))) {
+                return true;
+            }
+            return handleClientFrame(clientNumber, type, payload, offset, length);
+        }
+
+        // Client au-delà de sa limite de débit : son thread attend le prochain jeton sans lire
+        // le socket (le client ralentit de lui-même). Renvoie false si la ligne a été refusée.
+        private boolean awaitAdmission(long delay, LongSupplier admission) throws IOException {
+            while (delay > 0) {
+                pause(delay);
+                delay = admission.getAsLong();
+            }
+            if (delay < 0) {
+                pause(-delay);
+                return false;
+            }
+            return true;
+        }
+
+        private void pause(long nanos) throws IOException {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Attente de la limite de debit interrompue");
+            }
+        }
+
+        // Le thread du client attend la vérification faite sur le pool d'authentification
+        private boolean identify(String identity) throws IOException {
+            pseudoReceived = true;
+            boolean binary = decoder.isBinary();
+            AuthService.Result result = ChatServer.this.identify(identity).join();
+            if (!result.isAccepted()) {
+                // Le rédacteur n'est pas démarré : le refus est écrit directement
+                metrics.bytesOut.add(authFailure(clientNumber, result).writeTo(out, binary));
+                out.flush();
+                return false;
+            }
+            FrameCodec.Compressor writerCompressor = compressor;
+            startWriter(() -> runWriter(outbound, out, socket, clientNumber, binary, writerCompressor), clientNumber);
+            registerClient(clientNumber, new ClientInfo(socket, outbound, result));
+            return true;
+        }
+    }
+
+    private void startWriter(Runnable writer, int clientNumber) {
+        if (clientExecutor != null) {
+            clientExecutor.execute(writer);
+        } else {
+            Thread thread = new Thread(writer, "writer-" + clientNumber);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Rédacteur dédié : vide la file d'envoi du client vers son socket,
+    // en regroupant les messages déjà en attente avant chaque flush.
+    // Avec compression, ce même groupe est compressé d'un bloc (au-delà du seuil).
+    private void runWriter(OutboundQueue outbound, OutputStream out, Socket socket, int clientNumber, boolean binary,
+                           FrameCodec.Compressor compressor) {
+        try {
+            EncodedLine message;
+            while ((message = outbound.take()) != null) {
+                long written;
+                if (compressor == null) {
+                    written = message.writeTo(out, binary);
+                    while ((message = outbound.poll()) != null) {
+                        written += message.writeTo(out, binary);
+                    }
+                } else {
+                    message.writeTo(compressor.pending(), true);
+                    while ((message = outbound.poll()) != null) {
+                        message.writeTo(compressor.pending(), true);
+                    }
+                    byte[] batch = compressor.drain();
+                    out.write(batch);
+                    written = batch.length;
+                }
+                out.flush();
+                metrics.bytesOut.add(written);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                log("Erreur envoi au client " + clientNumber + " : " + e.getMessage());
+                outbound.close();
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Fermeture best-effort
+                }
+            }
+        } finally {
+            if (compressor != null) {
+                compressor.end();
+            }
+        }
+    }
+
+    // Enregistrement d'un client une fois son pseudo reçu (commun aux deux modes)
+    void registerClient(int clientNumber, ClientInfo clientInfo) {
+        String requested = clientInfo.pseudo == null ? "" : clientInfo.pseudo.trim();
+        if (requested.isEmpty()) {
+            requested = "Client" + clientNumber;
+        }
+        
+        // Réserver le pseudo et stocker les informations du client
+        membershipLock.lock();
+        try {
+            String pseudo = requested;
+            ClientInfo previous = pseudoIndex.get(pseudoKey(pseudo));
+            if (previous != null && clientInfo.resumed && clientInfo.account.equals(previous.account)) {
+                // Reprise avant que la perte de l'ancienne connexion soit détectée : celle-ci est
+                // fermée et la session garde son pseudo
+                pseudoIndex.remove(pseudoKey(pseudo), previous);
+                previous.replaced = true;
+                previous.close();
+                log("Client " + clientNumber + " reprend la session de '" + pseudo + "', ancienne connexion fermee");
+            }
+            // Pseudo déjà pris (ici ou sur un autre nœud) : on le rend unique avec le numéro du client
+            for (int attempt = 1; isPseudoTaken(pseudo); attempt++) {
+                pseudo = requested + "_" + clientNumber + (attempt > 1 ? "_" + attempt : "");
+            }
+            clientInfo.pseudo = pseudo;
+            pseudoIndex.put(pseudoKey(pseudo), clientInfo);
+            clients.put(clientNumber, clientInfo);
+            authService.attach(clientInfo.sessionToken);
+
+            // Sous le verrou : l'instantané précède forcément tout delta reçu ensuite par ce client
+            long version = ++presenceVersion;
+            clientInfo.sendNoWait(EncodedLine.of("CLIENT_NUMBER:" + clientNumber));
+            clientInfo.sendNoWait(EncodedLine.of("PSEUDO_ACCEPTED:" + pseudo));
+            if (clientInfo.sessionToken != null) {
+                clientInfo.sendNoWait(EncodedLine.of("SESSION_TOKEN:" + clientInfo.sessionToken));
+            }
+            clientInfo.sendNoWait(presenceSnapshot(version, clientNumber));
+            broadcastPresence(EncodedLine.of("PRESENCE_JOIN:" + version + ":" + clientNumber + ":" + pseudo), clientNumber);
+            if (cluster != null) {
+                cluster.userJoined(clientNumber, pseudo);
+            }
+        } finally {
+            membershipLock.unlock();
+        }
+        String pseudo = clientInfo.pseudo;
+        if (clientInfo.account != null) {
+            userManager.setUserOnline(clientInfo.account, true);
+        }
+        if (!pseudo.equals(requested)) {
+            log("Pseudo '" + requested + "' deja utilise, client " + clientNumber + " renomme en '" + pseudo + "'");
+        }
+        
+        // Reprise : seulement les messages manqués ; sinon l'historique AVANT la liste des clients
+        if (!sendMissedHistory(clientInfo)) {
+            sendHistory(clientNumber);
+            
+            sendClientList(clientNumber);
+        }
+        
+        String timestamp = getCurrentTimestamp();
+        publish("[" + timestamp + "] " + pseudo + " a rejoint le chat", clientNumber);
+        log("[" + timestamp + "] " + pseudo + " (Client " + clientNumber + ") a rejoint le chat");
+    }
+
+    // Limitation de débit, avant le traitement d'une ligne : renvoie 0 si elle peut être traitée
+    // tout de suite (un jeton a été pris), sinon le délai (ns) avant le prochain jeton, pendant
+    // lequel la lecture du client reste suspendue puis la ligne est présentée de nouveau.
+    // En politique REJECT, la ligne est refusée (le client en est averti) et le délai est
+    // renvoyé négatif : la lecture reprend ensuite sans cette ligne.
+    // retry : ligne déjà présentée puis différée, qui n'est plus comptée dans RateDeferred.
+    long admissionDelay(int clientNumber, String line, boolean retry) {
+        return admit(clientNumber, rateKind(line), retry);
+    }
+
+    long admissionDelay(int clientNumber, int type, byte[] payload, int offset, int length, boolean retry) {
+        switch (type) {
+            case FrameCodec.CHAT:
+                return admit(clientNumber, RateLimits.Kind.MESSAGE, retry);
+            case FrameCodec.PRIVATE:
+                return admit(clientNumber, RateLimits.Kind.PRIVATE, retry);
+            case FrameCodec.COMMAND: {
+                String command = FrameCodec.text(payload, offset, length);
+                return isCommand(command) ? admit(clientNumber, rateKind(command), retry) : 0;
+            }
+            default:
+                return 0;
+        }
+    }
+
+    // Budget d'une ligne du protocole texte (les autres commandes ne sont pas limitées)
+    private static RateLimits.Kind rateKind(String line) {
+        if (line.startsWith("@")) {
+            return RateLimits.Kind.PRIVATE;
+        } else if (line.equals("/list") || line.equals("/queues")) {
+            return RateLimits.Kind.LIST;
+        } else if (line.startsWith("/post ") || !isCommand(line)) {
+            return RateLimits.Kind.MESSAGE;
+        }
+        return null;
+    }
+
+    private long admit(int clientNumber, RateLimits.Kind kind, boolean retry) {
+        ClientInfo clientInfo = kind == null ? null : clients.get(clientNumber);
+        if (clientInfo == null) {
+            return 0;
+        }
+        RateLimits.Limit limit = rateLimits.get(kind);
+        long delay = clientInfo.budget.acquire(kind, limit, System.nanoTime());
+        if (delay == 0) {
+            return 0;
+        }
+        if (rateLimits.policy() == RateLimits.Policy.REJECT) {
+            metrics.rateRejected.increment();
+            clientInfo.send("[" + getCurrentTimestamp() + "] Limite de debit atteinte (" + kind.label + " : " + limit
+                    + "), ligne ignoree");
+            return -delay;
+        }
+        if (!retry) {
+            metrics.rateDeferred.increment();
+        }
+        return delay;
+    }
+
+    // Traitement d'une ligne reçue d'un client ; renvoie false si le client quitte la session
+    boolean handleClientLine(int clientNumber, String message) {
+        ClientInfo clientInfo = clients.get(clientNumber);
+        if (clientInfo != null) {
+            // Vérifier si c'est un message privé avec @<pseudo>
+            if (message.startsWith("@")) {
+                handlePrivateMessageByPseudo(message, clientNumber, clientInfo);
+            } else if (isCommand(message)) {
+                return handleCommand(clientNumber, clientInfo, message);
+            } else {
+                handlePublicMessage(clientNumber, clientInfo, message);
+            }
+        }
+        return true;
+    }
+
+    // Traitement d'une trame reçue (tramage binaire) : le type indique directement l'action,
+    // le contenu n'est jamais interprété (':' ou sauts de ligne autorisés)
+    boolean handleClientFrame(int clientNumber, int type, byte[] payload, int offset, int length) {
+        ClientInfo clientInfo = clients.get(clientNumber);
+        if (clientInfo == null) {
+            return true;
+        }
+        switch (type) {
+            case FrameCodec.CHAT:
+                handlePublicMessage(clientNumber, clientInfo, FrameCodec.text(payload, offset, length));
+                return true;
+            case FrameCodec.PRIVATE: {
+                int targetLength = length < 2 ? -1 : ((payload[offset] & 0xFF) << 8) | (payload[offset + 1] & 0xFF);
+                if (targetLength < 0 || 2 + targetLength > length) {
+                    clientInfo.send("[" + getCurrentTimestamp() + "] Format incorrect. Utilisez: @<pseudo> <message>");
+                    return true;
+                }
+                sendPrivateMessage(clientInfo,
+                        FrameCodec.text(payload, offset + 2, targetLength),
+                        FrameCodec.text(payload, offset + 2 + targetLength, length - 2 - targetLength));
+                return true;
+            }
+            case FrameCodec.COMMAND: {
+                String command = FrameCodec.text(payload, offset, length);
+                if (isCommand(command)) {
+                    return handleCommand(clientNumber, clientInfo, command);
+                }
+                clientInfo.send("[" + getCurrentTimestamp() + "] Commande inconnue : " + command);
+                return true;
+            }
+            default:
+                log("Client " + clientNumber + " : type de trame inconnu " + type + ", ignoree");
+                return true;
+        }
+    }
+
+    private static boolean isCommand(String message) {
+        return message.equals("/list") || message.equals("/queues") || message.equals("/presence")
+                || message.equals("/stats") || message.equals("/limit") || message.startsWith("/limit ")
+                || message.equalsIgnoreCase("exit")
+                || isConferenceCommand(message);
+    }
+
+    // Salons : CREATE_CONFERENCE:/CREATE_GROUP: (envoyés par EchoClientGUI), /join, /leave,
+    // /close, /post, /history et /rooms
+    private static boolean isConferenceCommand(String message) {
+        return message.startsWith("CREATE_CONFERENCE:") || message.startsWith("CREATE_GROUP:")
+                || message.startsWith("/join ") || message.startsWith("/leave ") || message.startsWith("/close ")
+                || message.startsWith("/post ") || message.startsWith("/history ") || message.equals("/rooms");
+    }
+
+    // Commandes communes aux deux protocoles ; renvoie false si le client quitte la session
+    private boolean handleCommand(int clientNumber, ClientInfo clientInfo, String command) {
+        long start = System.nanoTime();
+        if (command.equals("/list")) {
+            // Envoyer la liste des clients
+            sendClientList(clientNumber);
+            metrics.listCommand.record(System.nanoTime() - start);
+            return true;
+        } else if (command.equals("/queues")) {
+            sendQueueDepths(clientNumber);
+        } else if (command.equals("/presence")) {
+            // Resynchronisation demandée par un client qui a détecté un trou dans les versions
+            resendPresenceSnapshot(clientNumber, clientInfo);
+        } else if (command.equals("/stats")) {
+            sendStats(clientInfo);
+        } else if (command.startsWith("/limit")) {
+            handleLimitCommand(clientInfo, command);
+        } else if (isConferenceCommand(command)) {
+            handleConferenceCommand(clientInfo, command);
+        } else if (command.equalsIgnoreCase("exit")) {
+            // Départ volontaire : la session ne pourra pas être reprise
+            authService.revoke(clientInfo.sessionToken);
+            String exitMessage = "[" + getCurrentTimestamp() + "] " + clientInfo.pseudo + " a quitte la session.";
+            log(exitMessage);
+            return false;
+        }
+        metrics.otherCommand.record(System.nanoTime() - start);
+        return true;
+    }
+
+    private void handleConferenceCommand(ClientInfo clientInfo, String command) {
+        String timestamp = getCurrentTimestamp();
+        if (command.startsWith("CREATE_CONFERENCE:") || command.startsWith("CREATE_GROUP:")) {
+            boolean group = command.startsWith("CREATE_GROUP:");
+            String name = command.substring(command.indexOf(':') + 1).trim();
+            if (!isValidConferenceName(name)) {
+                clientInfo.send("[" + timestamp + "] Nom de conference invalide (non vide, sans espace)");
+            } else if ((group ? conferenceManager.createGroup(name, clientInfo.pseudo)
+                    : conferenceManager.createConference(name, clientInfo.pseudo)) == null) {
+                clientInfo.send("[" + timestamp + "] Erreur: la conference '" + name + "' existe deja");
+            } else {
+                clientInfo.send((group ? "GROUP_CREATED:" : "CONFERENCE_CREATED:") + name);
+                log("[" + timestamp + "] " + clientInfo.pseudo + " a cree " + (group ? "le groupe " : "la conference ") + name);
+            }
+            return;
+        }
+        if (command.equals("/rooms")) {
+            clientInfo.send("[" + timestamp + "] Vos conferences: " + joinOrNone(conferenceManager.getUserConferences(clientInfo.pseudo))
+                    + " | Conferences actives: " + joinOrNone(conferenceManager.getActiveConferences()));
+            return;
+        }
+
+        // /join <nom>, /leave <nom>, /close <nom>, /post <nom> <message>, /history <nom> [avant]
+        String arguments = command.substring(command.indexOf(' ') + 1).trim();
+        int space = arguments.indexOf(' ');
+        String name = space < 0 ? arguments : arguments.substring(0, space);
+        ConferenceManager.Conference conference = conferenceManager.getConference(name);
+        if (conference == null) {
+            clientInfo.send("[" + timestamp + "] Erreur: conference '" + name + "' introuvable");
+            return;
+        }
+        if (command.startsWith("/join ")) {
+            if (conference.isParticipant(clientInfo.pseudo)) {
+                clientInfo.send("[" + timestamp + "] [" + name + "] Vous etes deja membre");
+            } else if (conference.addParticipant(clientInfo.pseudo)) {
+                sendToConference(conference, "[" + timestamp + "] [" + name + "] " + clientInfo.pseudo + " a rejoint la conference");
+            }
+        } else if (command.startsWith("/leave ") || command.startsWith("/close ")) {
+            if (conference.isModerator(clientInfo.pseudo)) {
+                // Le départ du modérateur ferme la conférence
+                closeConference(name, clientInfo.pseudo);
+            } else if (command.startsWith("/close ")) {
+                clientInfo.send("[" + timestamp + "] [" + name + "] Seul le moderateur peut fermer la conference");
+            } else if (conferenceManager.removeParticipantFromConference(name, clientInfo.pseudo)) {
+                clientInfo.send("[" + timestamp + "] [" + name + "] Vous avez quitte la conference");
+                sendToConference(conference, "[" + timestamp + "] [" + name + "] " + clientInfo.pseudo + " a quitte la conference");
+            } else {
+                clientInfo.send("[" + timestamp + "] [" + name + "] Vous n'etes pas membre");
+            }
+        } else if (command.startsWith("/history ")) {
+            sendConferenceHistory(clientInfo, conference, space < 0 ? "" : arguments.substring(space + 1).trim());
+        } else if (space < 0 || arguments.substring(space + 1).trim().isEmpty()) {
+            clientInfo.send("[" + timestamp + "] Format incorrect. Utilisez: /post <conference> <message>");
+        } else if (!conference.isParticipant(clientInfo.pseudo)) {
+            clientInfo.send("[" + timestamp + "] [" + name + "] Rejoignez la conference avant d'y ecrire (/join " + name + ")");
+        } else {
+            String formatted = "[" + timestamp + "] [" + name + "] " + clientInfo.pseudo + " : " + arguments.substring(space + 1);
+            conference.addMessage(formatted);
+            sendToConference(conference, formatted);
+        }
+    }
+
+    // Une page d'historique d'une conférence (membres seulement) : les derniers messages, ou
+    // ceux qui précèdent le numéro donné ; les plus anciens sont relus depuis le disque
+    private void sendConferenceHistory(ClientInfo clientInfo, ConferenceManager.Conference conference, String before) {
+        String timestamp = getCurrentTimestamp();
+        String name = conference.getName();
+        if (!conference.isParticipant(clientInfo.pseudo)) {
+            clientInfo.send("[" + timestamp + "] [" + name + "] Rejoignez la conference pour lire son historique (/join " + name + ")");
+            return;
+        }
+        long beforeSequence = Long.MAX_VALUE;
+        if (!before.isEmpty()) {
+            try {
+                beforeSequence = Long.parseLong(before);
+            } catch (NumberFormatException e) {
+                clientInfo.send("[" + timestamp + "] Format incorrect. Utilisez: /history <conference> [avant]");
+                return;
+            }
+        }
+        long end = Math.max(0, Math.min(beforeSequence, conference.getMessageCount()));
+        List<String> page = conference.getMessages(end, CONFERENCE_HISTORY_PAGE);
+        long first = end - page.size();
+        if (page.isEmpty()) {
+            clientInfo.send("[" + timestamp + "] [" + name + "] Historique: aucun message");
+            return;
+        }
+        clientInfo.send("[" + timestamp + "] [" + name + "] Historique: messages " + first + " a " + (end - 1)
+                + " sur " + conference.getMessageCount());
+        for (String message : page) {
+            clientInfo.send(message);
+        }
+        if (first > 0) {
+            clientInfo.send("[" + timestamp + "] [" + name + "] Messages precedents: /history " + name + " " + first);
+        }
+    }
+
+    private static boolean isValidConferenceName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String joinOrNone(List<String> names) {
+        return names.isEmpty() ? "aucune" : String.join(", ", names);
+    }
+
+    // Diffusion aux membres connectés d'une conférence : une seule ligne encodée partagée,
+    // parcours de l'instantané immuable des membres, sans verrou ni copie
+    private void sendToConference(ConferenceManager.Conference conference, String message) {
+        sendToMembers(conference.getMemberSnapshot(), EncodedLine.of(message));
+    }
+
+    private void sendToMembers(String[] members, EncodedLine line) {
+        for (String member : members) {
+            ClientInfo memberInfo = pseudoIndex.get(pseudoKey(member));
+            if (memberInfo != null) {
+                memberInfo.send(line);
+            }
+        }
+    }
+
+    private void closeConference(String conferenceName, String moderator) {
+        String[] members = conferenceManager.closeAndGetMembers(conferenceName, moderator);
+        if (members != null) {
+            sendToMembers(members, EncodedLine.of("[" + getCurrentTimestamp() + "] [" + conferenceName + "] Conference fermee par " + moderator));
+        }
+    }
+
+    // Déconnexion : départ de chaque conférence via l'index inverse (O(adhésions)) ;
+    // celles que le client modérait sont fermées
+    private void leaveConferences(String pseudo) {
+        for (String name : conferenceManager.getUserConferences(pseudo)) {
+            if (conferenceManager.isModerator(name, pseudo)) {
+                closeConference(name, pseudo);
+            } else {
+                ConferenceManager.Conference conference = conferenceManager.getConference(name);
+                if (conference != null && conferenceManager.removeParticipantFromConference(name, pseudo)) {
+                    sendToConference(conference, "[" + getCurrentTimestamp() + "] [" + name + "] " + pseudo + " a quitte la conference");
+                }
+            }
+        }
+    }
+
+    // Métriques du serveur, réservées aux pseudos listés dans --admins
+    private void sendStats(ClientInfo clientInfo) {
+        String timestamp = getCurrentTimestamp();
+        // Réservée aux comptes authentifiés : un pseudo anonyme peut prendre n'importe quel nom
+        if (clientInfo.account == null || !config.isAdmin(clientInfo.account)) {
+            clientInfo.send("[" + timestamp + "] Commande reservee aux administrateurs");
+            return;
+        }
+        for (String line : metrics.describe()) {
+            clientInfo.send("[" + timestamp + "] " + line);
+        }
+    }
+
+    // /limit : limites en vigueur ; /limit <messages|prives|list> <par seconde> [rafale] ou
+    // /limit policy <defer|reject> les modifient pour tous les clients (administrateurs)
+    private void handleLimitCommand(ClientInfo clientInfo, String command) {
+        String timestamp = getCurrentTimestamp();
+        if (clientInfo.account == null || !config.isAdmin(clientInfo.account)) {
+            clientInfo.send("[" + timestamp + "] Commande reservee aux administrateurs");
+            return;
+        }
+        String[] arguments = command.trim().split("\\s+");
+        try {
+            if (arguments.length == 3 && arguments[1].equalsIgnoreCase("policy")) {
+                rateLimits.setPolicy(RateLimits.Policy.parse(arguments[2]));
+            } else if (arguments.length == 3 || arguments.length == 4) {
+                rateLimits.set(RateLimits.Kind.parse(arguments[1]),
+                        RateLimits.Limit.parse(arguments[2] + (arguments.length == 4 ? ":" + arguments[3] : "")));
+            } else if (arguments.length != 1) {
+                clientInfo.send("[" + timestamp + "] Format incorrect. Utilisez: /limit [messages|prives|list <par seconde> [rafale]]"
+                        + " ou /limit policy <defer|reject>");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            clientInfo.send("[" + timestamp + "] Erreur: " + e.getMessage());
+            return;
+        }
+        if (arguments.length > 1) {
+            log("[" + timestamp + "] " + clientInfo.pseudo + " a modifie les limites : " + rateLimits.describe());
+        }
+        clientInfo.send("[" + timestamp + "] " + rateLimits.describe());
+    }
+
+    private void handlePublicMessage(int clientNumber, ClientInfo clientInfo, String message) {
+        long start = System.nanoTime();
+        String timestamp = getCurrentTimestamp();
+        EncodedLine formattedMessage = publish("[" + timestamp + "] " + clientInfo.pseudo + " : " + message, clientNumber);
+        log(formattedMessage.text());
+        metrics.fanOut.record(System.nanoTime() - start);
+    }
+
+    // Retrait d'un client de la table et de l'annuaire des pseudos, avec diffusion du delta de présence
+    private ClientInfo removeClient(int clientNumber) {
+        membershipLock.lock();
+        try {
+            ClientInfo clientInfo = clients.remove(clientNumber);
+            if (clientInfo != null) {
+                pseudoIndex.remove(pseudoKey(clientInfo.pseudo), clientInfo);
+                long version = ++presenceVersion;
+                broadcastPresence(EncodedLine.of("PRESENCE_LEAVE:" + version + ":" + clientNumber + ":" + clientInfo.pseudo), clientNumber);
+                if (cluster != null) {
+                    cluster.userLeft(clientNumber, clientInfo.pseudo);
+                }
+            }
+            return clientInfo;
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    private static String pseudoKey(String pseudo) {
+        return pseudo.toLowerCase(Locale.ROOT);
+    }
+
+    private boolean isPseudoTaken(String pseudo) {
+        String key = pseudoKey(pseudo);
+        return pseudoIndex.containsKey(key) || remotePseudos.containsKey(key);
+    }
+
+    // Départ d'un client : diffusion du message de départ et de la nouvelle liste
+    void unregisterClient(int clientNumber) {
+        ClientInfo clientInfo = removeClient(clientNumber);
+        if (clientInfo != null && clientInfo.replaced) {
+            // Connexion remplacée par une reprise de session : le pseudo, ses conférences et
+            // sa présence appartiennent désormais à la nouvelle connexion (removeClient a pris
+            // membershipLock, la marque posée par registerClient est visible)
+            return;
+        }
+        if (clientInfo != null) {
+            authService.detach(clientInfo.sessionToken);
+            if (cluster != null) {
+                cluster.release(clientInfo.pseudo);
+            }
+            if (clientInfo.account != null) {
+                userManager.setUserOnline(clientInfo.account, false);
+            }
+            leaveConferences(clientInfo.pseudo);
+            String timestamp = getCurrentTimestamp();
+            publish("[" + timestamp + "] " + clientInfo.pseudo + " a quitte le chat", -1);
+        }
+    }
+
+    // Nouvelle méthode simplifiée pour gérer les messages privés par pseudo
+    void handlePrivateMessageByPseudo(String message, int senderClientNumber, ClientInfo senderInfo) {
+        // Format: @<pseudo> <message>
+        int space = message.indexOf(' ');
+        if (space > 0) {
+            sendPrivateMessage(senderInfo, message.substring(1, space), message.substring(space + 1)); // Enlever le @
+        } else {
+            String timestamp = getCurrentTimestamp();
+            String errorMessage = "[" + timestamp + "] Format incorrect. Utilisez: @<pseudo> <message>";
+            senderInfo.send(errorMessage);
+        }
+    }
+
+    private void sendPrivateMessage(ClientInfo senderInfo, String targetPseudo, String privateMessage) {
+        long start = System.nanoTime();
+        // Chercher le client par pseudo dans l'annuaire
+        ClientInfo targetClient = pseudoIndex.get(pseudoKey(targetPseudo));
+        String timestamp = getCurrentTimestamp();
+        
+        if (targetClient != null) {
+            String formattedPrivateMessage = "[" + timestamp + "] [PRIVE] " + senderInfo.pseudo + " : " + privateMessage;
+            
+            // Envoyer au destinataire
+            targetClient.send(formattedPrivateMessage);
+            
+            // Envoyer une confirmation à l'expéditeur
+            String confirmationMessage = "[" + timestamp + "] [PRIVE] -> " + targetClient.pseudo + " : " + privateMessage;
+            senderInfo.send(confirmationMessage);
+            
+            log("[" + timestamp + "] Message privé de " + senderInfo.pseudo + " vers " + targetClient.pseudo + " : " + privateMessage);
+        } else if (cluster != null) {
+            RemoteUser remote = remotePseudos.get(pseudoKey(targetPseudo));
+            if (remote != null && cluster.sendPrivate(remote.node, senderInfo.pseudo, remote.pseudo, privateMessage)) {
+                // Destinataire annoncé par un autre nœud : envoyé directement à son hôte
+                senderInfo.send("[" + timestamp + "] [PRIVE] -> " + remote.pseudo + " : " + privateMessage);
+            } else if (remote == null && cluster.routePrivate(senderInfo.pseudo, targetPseudo, privateMessage)) {
+                // Inconnu ici, mais peut-être annoncé par un autre nœud à l'instant : l'annuaire
+                // tranche, la confirmation (ou l'erreur) revient par le bus
+            } else {
+                senderInfo.send("[" + timestamp + "] Erreur: Utilisateur '" + targetPseudo + "' " + (remote != null ? "injoignable." : "non trouve."));
+            }
+        } else {
+            String errorMessage = "[" + timestamp + "] Erreur: Utilisateur '" + targetPseudo + "' non trouve.";
+            senderInfo.send(errorMessage);
+        }
+        metrics.privateMessage.record(System.nanoTime() - start);
+    }
+
+    // Instantané de présence (sans le destinataire) : PRESENCE_SNAPSHOT:<version>:<num>:<pseudo>,...
+    // Appelé sous membershipLock pour être cohérent avec la version
+    private EncodedLine presenceSnapshot(long version, int clientNumber) {
+        StringBuilder snapshot = new StringBuilder("PRESENCE_SNAPSHOT:").append(version).append(":");
+        for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
+            if (entry.getKey() != clientNumber) {
+                snapshot.append(entry.getKey()).append(":").append(entry.getValue().pseudo).append(",");
+            }
+        }
+        for (RemoteUser remote : remoteUsers.values()) {
+            snapshot.append(remote.clientNumber).append(":").append(remote.pseudo).append(",");
+        }
+        if (snapshot.charAt(snapshot.length() - 1) == ',') {
+            snapshot.setLength(snapshot.length() - 1);
+        }
+        return EncodedLine.of(snapshot.toString());
+    }
+
+    private void resendPresenceSnapshot(int clientNumber, ClientInfo clientInfo) {
+        membershipLock.lock();
+        try {
+            clientInfo.sendNoWait(presenceSnapshot(presenceVersion, clientNumber));
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    // Diffusion d'un delta de présence à tous sauf le client concerné (sous membershipLock,
+    // pour que chaque client reçoive les versions dans l'ordre)
+    private void broadcastPresence(EncodedLine delta, int subjectClientNumber) {
+        for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
+            if (entry.getKey() != subjectClientNumber) {
+                entry.getValue().sendNoWait(delta);
+            }
+        }
+    }
+
+    // Méthode pour envoyer la liste des clients à un client spécifique
+    void sendClientList(int clientNumber) {
+        ClientInfo clientInfo = clients.get(clientNumber);
+        if (clientInfo != null) {
+            String timestamp = getCurrentTimestamp();
+            StringBuilder clientList = new StringBuilder("[" + timestamp + "] Liste des clients connectes:");
+            boolean hasOtherClients = false;
+            
+            for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
+                int num = entry.getKey();
+                ClientInfo info = entry.getValue();
+                if (num != clientNumber) { 
+                    clientList.append(" ").append(num).append(":").append(info.pseudo).append(",");
+                    hasOtherClients = true;
+                }
+            }
+            for (RemoteUser remote : remoteUsers.values()) {
+                clientList.append(" ").append(remote.clientNumber).append(":").append(remote.pseudo).append(",");
+                hasOtherClients = true;
+            }
+            
+            if (hasOtherClients) {
+                if (clientList.charAt(clientList.length() - 1) == ',') {
+                    clientList.setLength(clientList.length() - 1);
+                }
+            } else {
+                clientList.append(" : aucun");
+            }
+            
+            clientInfo.send(clientList.toString());
+            
+            // Envoyer les commandes disponibles
+            String commandsMessage = "[" + timestamp + "] Commandes disponibles: @<pseudo> <message>, /list, /queues, "
+                    + "/rooms, /join <conf>, /leave <conf>, /post <conf> <message>, /history <conf> [avant], exit";
+            clientInfo.send(commandsMessage);
+        }
+    }
+
+    // Méthode pour envoyer à un client l'état des files d'envoi de chaque client
+    private void sendQueueDepths(int clientNumber) {
+        ClientInfo clientInfo = clients.get(clientNumber);
+        if (clientInfo != null) {
+            StringBuilder depths = new StringBuilder("[" + getCurrentTimestamp() + "] Files d'envoi:");
+            for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
+                ClientInfo info = entry.getValue();
+                depths.append(" ").append(entry.getKey()).append(":").append(info.pseudo)
+                      .append("=").append(info.queueDepth());
+                long dropped = info.outbound.droppedCount();
+                if (dropped > 0) {
+                    depths.append(" (").append(dropped).append(" perdus)");
+                }
+                depths.append(",");
+            }
+            depths.setLength(depths.length() - 1);
+            clientInfo.send(depths.toString());
+        }
+    }
+
+    // Méthode pour diffuser un message à tous les clients : encodé une seule fois,
+    // la même ligne est déposée dans la file de chaque destinataire
+    void broadcastMessage(EncodedLine message, int senderClientNumber) {
+        for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
+            int clientNum = entry.getKey();
+            ClientInfo clientInfo = entry.getValue();
+            
+            try {
+                if (!clientInfo.send(message)) {
+                    metrics.queueOverflows.increment();
+                    log("File d'envoi saturee, client " + clientNum + " deconnecte");
+                }
+            } catch (Exception e) {
+                log("Erreur envoi au client " + clientNum + " : " + e.getMessage());
+                removeClient(clientNum);
+            }
+        }
+    }
+
+    // Messages des autres nœuds de la grappe (threads lecteurs du bus)
+    private class ClusterEvents implements ClusterBus.Handler {
+
+        @Override
+        public Map<Integer, String> localUsers() {
+            Map<Integer, String> users = new HashMap<>();
+            for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
+                users.put(entry.getKey(), entry.getValue().pseudo);
+            }
+            return users;
+        }
+
+        @Override
+        public void onPublish(int node, String line) {
+            broadcastMessage(addToHistory(line), -1);
+        }
+
+        @Override
+        public void onUserJoined(int node, int clientNumber, String pseudo) {
+            membershipLock.lock();
+            try {
+                RemoteUser remote = new RemoteUser(node, clientNumber, pseudo);
+                // Un client déjà connu (instantané rejoué après une file) n'est annoncé qu'une fois
+                if (remoteUsers.put(clientNumber, remote) == null) {
+                    long version = ++presenceVersion;
+                    broadcastPresence(EncodedLine.of("PRESENCE_JOIN:" + version + ":" + clientNumber + ":" + pseudo), -1);
+                }
+                remotePseudos.put(pseudoKey(pseudo), remote);
+            } finally {
+                membershipLock.unlock();
+            }
+        }
+
+        @Override
+        public void onUserLeft(int node, int clientNumber, String pseudo) {
+            membershipLock.lock();
+            try {
+                forgetRemoteUser(clientNumber);
+            } finally {
+                membershipLock.unlock();
+            }
+        }
+
+        @Override
+        public void onNodeDown(int node) {
+            membershipLock.lock();
+            try {
+                int forgotten = 0;
+                for (RemoteUser remote : remoteUsers.values()) {
+                    if (remote.node == node) {
+                        forgetRemoteUser(remote.clientNumber);
+                        forgotten++;
+                    }
+                }
+                if (forgotten > 0) {
+                    log("Grappe : " + forgotten + " client(s) du noeud " + node + " retires de la presence");
+                }
+            } finally {
+                membershipLock.unlock();
+            }
+        }
+
+        // Sous membershipLock
+        private void forgetRemoteUser(int clientNumber) {
+            RemoteUser remote = remoteUsers.remove(clientNumber);
+            if (remote != null) {
+                remotePseudos.remove(pseudoKey(remote.pseudo), remote);
+                long version = ++presenceVersion;
+                broadcastPresence(EncodedLine.of("PRESENCE_LEAVE:" + version + ":" + clientNumber + ":" + remote.pseudo), -1);
+            }
+        }
+
+        @Override
+        public String deliverPrivate(String sender, String target, String message) {
+            ClientInfo targetClient = pseudoIndex.get(pseudoKey(target));
+            if (targetClient == null) {
+                return null;
+            }
+            targetClient.send("[" + getCurrentTimestamp() + "] [PRIVE] " + sender + " : " + message);
+            return targetClient.pseudo;
+        }
+
+        @Override
+        public void onPrivateFailed(String sender, String target) {
+            ClientInfo senderInfo = pseudoIndex.get(pseudoKey(sender));
+            if (senderInfo != null) {
+                senderInfo.send("[" + getCurrentTimestamp() + "] Erreur: Utilisateur '" + target + "' non trouve.");
+            }
+        }
+
+        @Override
+        public void onPrivateDelivered(String sender, String target, String message) {
+            ClientInfo senderInfo = pseudoIndex.get(pseudoKey(sender));
+            if (senderInfo != null) {
+                senderInfo.send("[" + getCurrentTimestamp() + "] [PRIVE] -> " + target + " : " + message);
+            }
+        }
+
+        @Override
+        public void onClaimConflict(String pseudo, int holder) {
+            ClientInfo clientInfo = pseudoIndex.get(pseudoKey(pseudo));
+            if (clientInfo != null) {
+                log("Grappe : pseudo '" + pseudo + "' deja utilise sur le noeud " + holder + ", client deconnecte");
+                clientInfo.sendNoWait(EncodedLine.of("[" + getCurrentTimestamp() + "] Pseudo '" + pseudo
+                        + "' deja utilise sur un autre noeud, reconnectez-vous"));
+                clientInfo.close();
+            }
+        }
+    }
+
+    // Jauges lues à la demande par ServerMetrics (JMX, /stats)
+    int clientCount() {
+        return clients.size();
+    }
+
+    int historySize() {
+        return messageHistory.size();
+    }
+
+    int historyCapacity() {
+        return messageHistory.capacity();
+    }
+
+    long totalQueueDepth() {
+        long total = 0;
+        for (ClientInfo clientInfo : clients.values()) {
+            total += clientInfo.queueDepth();
+        }
+        return total;
+    }
+
+    int maxQueueDepth() {
+        int max = 0;
+        for (ClientInfo clientInfo : clients.values()) {
+            max = Math.max(max, clientInfo.queueDepth());
+        }
+        return max;
+    }
+
+    // Journal asynchrone : ne bloque jamais le thread appelant
+    void log(String message) {
+        logger.log(message);
+    }
+
+    // Démarrage sans interface : le journal est aussi recopié, par lots, sur la sortie standard
+    public static void main(String[] args) throws IOException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        AsyncLogger logger = AsyncLogger.fromConfig(config);
+        logger.addListener(batch -> {
+            StringBuilder lines = new StringBuilder();
+            for (String line : batch) {
+                lines.append(line).append('\n');
+            }
+            System.out.print(lines);
+        });
+        new ChatServer(config, logger).start();
+    }
+}
@@ -0,0 +1,549 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Bus entre les nœuds d'une grappe de serveurs (--cluster=hote:port,... --node=<rang>), sans
+// courtier externe : chaque nœud écoute sur son adresse de la liste et ouvre une liaison
+// sortante vers chacun des autres. Une liaison sortante ne sert qu'à émettre (un rédacteur et
+// une file bornée par pair), une liaison entrante qu'à recevoir (un lecteur par pair).
+// Les messages sont des trames FrameCodec dont le contenu est une suite de champs.
+//
+// Chaque nœud annonce ses clients à tous les autres (USER_JOIN/USER_LEAVE), qui les intègrent
+// à leur présence. L'annuaire des pseudos est partagé par hachage : le nœud ownerOf(pseudo)
+// sait quel nœud héberge ce pseudo, arbitre les conflits (deux nœuds qui acceptent le même
+// pseudo avant d'avoir vu l'annonce de l'autre) et route les messages privés.
+final class ClusterBus {
+
+    // Types de messages entre nœuds
+    static final int NODE_HELLO = 1;     // [rang] : premier message d'une liaison
+    static final int HEARTBEAT = 2;      // liaison inactive : détection des nœuds injoignables
+    static final int PUBLISH = 3;        // [ligne] : message public ou annonce, à diffuser
+    static final int USER_JOIN = 4;      // [numéro][pseudo]
+    static final int USER_LEAVE = 5;     // [numéro][pseudo]
+    static final int CLAIM = 6;          // [pseudo] : hébergé par l'émetteur (vers le propriétaire)
+    static final int RELEASE = 7;        // [pseudo]
+    static final int CLAIM_CONFLICT = 8; // [pseudo][rang du nœud qui le détient]
+    static final int PRIVATE = 9;        // [nœud d'origine][accusé demandé (0 ou 1)][expéditeur][destinataire][message]
+    static final int PRIVATE_FAILED = 10; // [expéditeur][destinataire]
+    static final int PRIVATE_DELIVERED = 11; // [expéditeur][destinataire][message] : accusé de remise
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+    // Sans trame pendant ce délai, la liaison entrante est tenue pour morte
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final long RECONNECT_MIN_MILLIS = 250;
+    private static final long RECONNECT_MAX_MILLIS = 5000;
+    // Trames en attente par pair ; au-delà (pair trop lent) elles sont perdues et comptées
+    private static final int PEER_QUEUE_CAPACITY = 65536;
+    private static final byte[] HEARTBEAT_FRAME = FrameCodec.encode(HEARTBEAT, new byte[0], 0, 0);
+
+    // Réactions du serveur aux messages des autres nœuds (appelées par les lecteurs du bus)
+    interface Handler {
+        // Clients de ce nœud (numéro -> pseudo), rejoués à chaque (re)connexion d'une liaison
+        Map<Integer, String> localUsers();
+
+        void onPublish(int node, String line);
+
+        void onUserJoined(int node, int clientNumber, String pseudo);
+
+        void onUserLeft(int node, int clientNumber, String pseudo);
+
+        // Liaison entrante perdue ou rétablie : les clients annoncés par ce nœud sont oubliés
+        void onNodeDown(int node);
+
+        // Remise d'un message privé à un client de ce nœud : renvoie son pseudo, ou null s'il
+        // n'est pas (plus) ici
+        String deliverPrivate(String sender, String target, String message);
+
+        void onPrivateFailed(String sender, String target);
+
+        void onPrivateDelivered(String sender, String target, String message);
+
+        // Le pseudo d'un client de ce nœud est déjà détenu par un autre nœud
+        void onClaimConflict(String pseudo, int holder);
+    }
+
+    private final ChatServer server;
+    private final ServerMetrics metrics;
+    private final Handler handler;
+    private final List<InetSocketAddress> nodes;
+    private final int self;
+    private final Peer[] peers;
+    // Liaison entrante en service pour chaque nœud (une reconnexion remplace la précédente)
+    private final Socket[] inbound;
+    // Partition de l'annuaire détenue par ce nœud : pseudo (minuscules) -> rang du nœud hôte
+    private final Map<String, Integer> directory = new ConcurrentHashMap<>();
+    private ServerSocket listener;
+
+    ClusterBus(ChatServer server, ServerConfig config, Handler handler) {
+        this.server = server;
+        this.metrics = server.metrics();
+        this.handler = handler;
+        this.nodes = config.clusterNodes;
+        this.self = config.nodeIndex;
+        this.peers = new Peer[nodes.size()];
+        this.inbound = new Socket[nodes.size()];
+        for (int node = 0; node < nodes.size(); node++) {
+            if (node != self) {
+                peers[node] = new Peer(node, nodes.get(node));
+            }
+        }
+    }
+
+    void start() throws IOException {
+        listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        // Bus sans authentification : uniquement sur l'adresse de ce nœud dans la liste
+        listener.bind(nodes.get(self));
+        startThread(this::acceptLoop, "cluster-accept");
+        for (Peer peer : peers) {
+            if (peer != null) {
+                startThread(peer, "cluster-peer-" + peer.node);
+            }
+        }
+        server.log("Grappe : noeud " + self + "/" + nodes.size() + ", bus en ecoute sur "
+                + nodes.get(self).getHostString() + ":" + nodes.get(self).getPort());
+    }
+
+    int self() {
+        return self;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    // Nœud qui détient l'entrée d'un pseudo dans l'annuaire (même résultat sur tous les nœuds)
+    int ownerOf(String pseudo) {
+        return Math.floorMod(key(pseudo).hashCode(), nodes.size());
+    }
+
+    void publish(String line) {
+        byte[] frame = new Fields().text(line).toFrame(PUBLISH);
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.send(frame);
+            }
+        }
+    }
+
+    // Nouveau client local : annonce à tous les nœuds et inscription dans l'annuaire
+    void userJoined(int clientNumber, String pseudo) {
+        byte[] frame = new Fields().number(clientNumber).text(pseudo).toFrame(USER_JOIN);
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.send(frame);
+            }
+        }
+        int owner = ownerOf(pseudo);
+        if (owner == self) {
+            claim(pseudo, self);
+        } else {
+            peers[owner].send(new Fields().text(pseudo).toFrame(CLAIM));
+        }
+    }
+
+    void userLeft(int clientNumber, String pseudo) {
+        byte[] frame = new Fields().number(clientNumber).text(pseudo).toFrame(USER_LEAVE);
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.send(frame);
+            }
+        }
+    }
+
+    // Pseudo libéré pour de bon (pas de reprise de session en cours sur ce nœud)
+    void release(String pseudo) {
+        int owner = ownerOf(pseudo);
+        if (owner == self) {
+            directory.remove(key(pseudo), self);
+        } else {
+            peers[owner].send(new Fields().text(pseudo).toFrame(RELEASE));
+        }
+    }
+
+    // Message privé pour un client annoncé par un autre nœud : envoyé directement à son hôte, la
+    // confirmation est déjà partie. Un échec (client parti entre-temps) revient par PRIVATE_FAILED ;
+    // renvoie false si l'hôte est injoignable.
+    boolean sendPrivate(int node, String sender, String target, String message) {
+        byte[] frame = privateFrame(self, false, sender, target, message);
+        return frame != null && peers[node].send(frame);
+    }
+
+    // Message privé pour un pseudo inconnu de ce nœud (annonce pas encore reçue) : confié au
+    // propriétaire de son entrée d'annuaire, qui le transmet au nœud hôte (deux sauts au plus).
+    // La remise est confirmée par PRIVATE_DELIVERED, un échec revient par PRIVATE_FAILED ;
+    // renvoie false si le propriétaire est injoignable.
+    boolean routePrivate(String sender, String target, String message) {
+        int owner = ownerOf(target);
+        if (owner == self) {
+            resolvePrivate(self, true, sender, target, message);
+            return true;
+        }
+        byte[] frame = privateFrame(self, true, sender, target, message);
+        return frame != null && peers[owner].send(frame);
+    }
+
+    private static byte[] privateFrame(int origin, boolean acknowledge, String sender, String target, String message) {
+        return new Fields().number(origin).number(acknowledge ? 1 : 0).text(sender).text(target).text(message).toFrame(PRIVATE);
+    }
+
+    private void resolvePrivate(int origin, boolean acknowledge, String sender, String target, String message) {
+        Integer holder = directory.get(key(target));
+        if (holder != null && holder != self) {
+            byte[] frame = privateFrame(origin, acknowledge, sender, target, message);
+            if (frame != null && peers[holder].send(frame)) {
+                return;
+            }
+        }
+        privateFailed(origin, sender, target);
+    }
+
+    private void privateFailed(int origin, String sender, String target) {
+        if (origin == self) {
+            handler.onPrivateFailed(sender, target);
+        } else {
+            peers[origin].send(new Fields().text(sender).text(target).toFrame(PRIVATE_FAILED));
+        }
+    }
+
+    private void privateDelivered(int origin, String sender, String target, String message) {
+        if (origin == self) {
+            handler.onPrivateDelivered(sender, target, message);
+            return;
+        }
+        byte[] frame = new Fields().text(sender).text(target).text(message).toFrame(PRIVATE_DELIVERED);
+        if (frame != null) {
+            peers[origin].send(frame);
+        }
+    }
+
+    // Partition locale de l'annuaire : le premier nœud qui réserve un pseudo le garde
+    private void claim(String pseudo, int node) {
+        Integer holder = directory.putIfAbsent(key(pseudo), node);
+        if (holder == null || holder == node) {
+            return;
+        }
+        server.log("Grappe : pseudo '" + pseudo + "' reclame par le noeud " + node + ", deja detenu par le noeud " + holder);
+        if (node == self) {
+            handler.onClaimConflict(pseudo, holder);
+        } else {
+            peers[node].send(new Fields().text(pseudo).number(holder).toFrame(CLAIM_CONFLICT));
+        }
+    }
+
+    private static String key(String pseudo) {
+        return pseudo.toLowerCase(Locale.ROOT);
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                server.log("Grappe : erreur d'ecoute du bus : " + e.getMessage());
+                return;
+            }
+            startThread(() -> readLink(socket), "cluster-link");
+        }
+    }
+
+    // Lecteur d'une liaison entrante : NODE_HELLO, puis les messages d'un seul nœud
+    private void readLink(Socket socket) {
+        LinkReader reader = new LinkReader(socket);
+        try (InputStream in = socket.getInputStream()) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            byte[] chunk = new byte[8192];
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                buffer.clear();
+                buffer.limit(read);
+                if (!reader.decoder.feed(buffer, reader)) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            server.log("Grappe : noeud " + reader.node + " muet depuis " + READ_TIMEOUT_MILLIS + " ms");
+        } catch (IOException e) {
+            if (reader.node >= 0) {
+                server.log("Grappe : liaison depuis le noeud " + reader.node + " perdue : " + e.getMessage());
+            }
+        } finally {
+            closeQuietly(socket);
+            reader.detach();
+        }
+    }
+
+    private final class LinkReader implements FrameCodec.Listener {
+        final FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        private final Socket socket;
+        int node = -1;
+
+        LinkReader(Socket socket) {
+            this.socket = socket;
+            decoder.switchToBinary();
+        }
+
+        @Override
+        public boolean onLine(String line) {
+            return false;
+        }
+
+        @Override
+        public boolean onFrame(int type, byte[] payload, int offset, int length) throws IOException {
+            DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload, offset, length));
+            if (node < 0) {
+                return type == NODE_HELLO && attach(fields.readInt());
+            }
+            switch (type) {
+                case HEARTBEAT:
+                    break;
+                case PUBLISH:
+                    handler.onPublish(node, readText(fields));
+                    break;
+                case USER_JOIN:
+                    handler.onUserJoined(node, fields.readInt(), readText(fields));
+                    break;
+                case USER_LEAVE:
+                    handler.onUserLeft(node, fields.readInt(), readText(fields));
+                    break;
+                case CLAIM:
+                    claim(readText(fields), node);
+                    break;
+                case RELEASE:
+                    directory.remove(key(readText(fields)), node);
+                    break;
+                case CLAIM_CONFLICT:
+                    handler.onClaimConflict(readText(fields), fields.readInt());
+                    break;
+                case PRIVATE: {
+                    int origin = fields.readInt();
+                    boolean acknowledge = fields.readInt() != 0;
+                    String sender = readText(fields);
+                    String target = readText(fields);
+                    String message = readText(fields);
+                    String delivered = handler.deliverPrivate(sender, target, message);
+                    if (delivered != null) {
+                        if (acknowledge) {
+                            privateDelivered(origin, sender, delivered, message);
+                        }
+                        break;
+                    }
+                    // Seul le propriétaire de l'entrée transmet : pas de boucle entre nœuds
+                    if (ownerOf(target) == self) {
+                        resolvePrivate(origin, acknowledge, sender, target, message);
+                    } else {
+                        privateFailed(origin, sender, target);
+                    }
+                    break;
+                }
+                case PRIVATE_FAILED:
+                    handler.onPrivateFailed(readText(fields), readText(fields));
+                    break;
+                case PRIVATE_DELIVERED:
+                    handler.onPrivateDelivered(readText(fields), readText(fields), readText(fields));
+                    break;
+                default:
+                    server.log("Grappe : type de message inconnu " + type + " du noeud " + node + ", ignore");
+            }
+            return true;
+        }
+
+        // La liaison devient celle du nœud : l'éventuelle précédente est fermée et tout ce que
+        // le nœud avait annoncé est oublié, son état complet suit sur cette liaison
+        private boolean attach(int announced) {
+            if (announced < 0 || announced >= nodes.size() || announced == self) {
+                server.log("Grappe : rang de noeud invalide " + announced + ", liaison refusee");
+                return false;
+            }
+            Socket previous;
+            synchronized (inbound) {
+                previous = inbound[announced];
+                inbound[announced] = socket;
+            }
+            node = announced;
+            if (previous != null) {
+                closeQuietly(previous);
+            }
+            forgetNode(announced);
+            server.log("Grappe : liaison depuis le noeud " + announced + " etablie");
+            return true;
+        }
+
+        void detach() {
+            if (node < 0) {
+                return;
+            }
+            synchronized (inbound) {
+                if (inbound[node] != socket) {
+                    // Déjà remplacée par une reconnexion du même nœud
+                    return;
+                }
+                inbound[node] = null;
+            }
+            forgetNode(node);
+        }
+    }
+
+    private void forgetNode(int node) {
+        directory.entrySet().removeIf(entry -> entry.getValue() == node);
+        handler.onNodeDown(node);
+    }
+
+    // Liaison sortante vers un nœud : connexion (avec reprise), état local rejoué, puis envoi
+    // des trames en attente par lots. Hors connexion, les trames d'état sont perdues (et
+    // comptées) : l'état rejoué à la reconnexion remplace ce qui a été manqué. Les messages
+    // publics (PUBLISH), que rien ne rejoue, attendent la reconnexion dans la file bornée ;
+    // seuls ceux qui dépassent la file ou étaient en cours d'écriture à la coupure sont perdus.
+    private final class Peer implements Runnable {
+        final int node;
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(PEER_QUEUE_CAPACITY);
+        private volatile boolean connected = false;
+
+        Peer(int node, InetSocketAddress address) {
+            this.node = node;
+            this.address = address;
+        }
+
+        boolean send(byte[] frame) {
+            if (frame != null && (connected || frame[0] == PUBLISH) && queue.offer(frame)) {
+                metrics.clusterMessagesSent.increment();
+                return true;
+            }
+            metrics.clusterMessagesDropped.increment();
+            return false;
+        }
+
+        @Override
+        public void run() {
+            long delay = RECONNECT_MIN_MILLIS;
+            while (true) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    // Ouvert avant l'instantané : un changement concurrent figure au pire deux
+                    // fois (instantané puis file), ce que le destinataire tolère. Les messages
+                    // publics gardés pendant la coupure partent juste après l'instantané.
+                    queue.removeIf(frame -> frame[0] != PUBLISH);
+                    connected = true;
+                    writeSnapshot(out);
+                    server.log("Grappe : liaison vers le noeud " + node + " (" + address + ") etablie");
+                    delay = RECONNECT_MIN_MILLIS;
+                    while (true) {
+                        byte[] frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                        out.write(frame != null ? frame : HEARTBEAT_FRAME);
+                        while ((frame = queue.poll()) != null) {
+                            out.write(frame);
+                        }
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    if (connected) {
+                        server.log("Grappe : liaison vers le noeud " + node + " perdue : " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    connected = false;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                delay = Math.min(delay * 2, RECONNECT_MAX_MILLIS);
+            }
+        }
+
+        // Rang, clients locaux et entrées d'annuaire que ce nœud détient chez le pair
+        private void writeSnapshot(OutputStream out) throws IOException {
+            out.write(new Fields().number(self).toFrame(NODE_HELLO));
+            for (Map.Entry<Integer, String> user : handler.localUsers().entrySet()) {
+                String pseudo = user.getValue();
+                out.write(new Fields().number(user.getKey()).text(pseudo).toFrame(USER_JOIN));
+                if (ownerOf(pseudo) == node) {
+                    out.write(new Fields().text(pseudo).toFrame(CLAIM));
+                }
+            }
+            out.flush();
+        }
+    }
+
+    // Contenu d'un message : entiers et chaînes (longueur puis UTF-8) à la suite
+    private static final class Fields {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Fields number(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return this;
+        }
+
+        Fields text(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            number(encoded.length);
+            bytes.write(encoded, 0, encoded.length);
+            return this;
+        }
+
+        // null si le message dépasse la taille maximale d'une trame
+        byte[] toFrame(int type) {
+            if (bytes.size() > FrameCodec.MAX_LENGTH) {
+                return null;
+            }
+            return FrameCodec.encode(type, bytes.toByteArray(), 0, bytes.size());
+        }
+    }
+
+    private static String readText(DataInputStream fields) throws IOException {
+        int length = fields.readInt();
+        if (length < 0 || length > fields.available()) {
+            throw new IOException("Champ de longueur invalide : " + length);
+        }
+        byte[] encoded = new byte[length];
+        fields.readFully(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    private static void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Fermeture best-effort
+        }
+    }
+}
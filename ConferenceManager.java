@@ -1,73 +1,314 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Conférences et groupes : salons côté serveur (création, adhésion, départ, messages).
+// Utilisable depuis tous les threads clients sans verrou global :
+// - la table des conférences et l'index inverse utilisateur -> conférences sont concurrents ;
+// - les membres d'une conférence sont publiés sous forme de tableau immuable (copie à
+//   l'écriture sous le verrou de la conférence) : la diffusion parcourt un instantané sans
+//   verrou, les adhésions et départs (rares) ne bloquent que leur propre conférence ;
+// - les messages récents sont gardés dans un anneau borné par conférence ; les plus anciens
+//   sont déversés dans un journal sur disque propre à la conférence (conferences/conf-<nom>),
+//   relu uniquement pour les pages d'historique qui sortent de l'anneau.
+// L'index inverse est tenu à jour sous le verrou de la conférence concernée : "mes conférences"
+// et le nettoyage à la déconnexion coûtent O(adhésions de l'utilisateur).
 public class ConferenceManager {
-    private Map<String, Conference> conferences = new HashMap<>();
-    
+    private final Map<String, Conference> conferences = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> userConferences = new ConcurrentHashMap<>();
+    private final Retention retention;
+
+    // Conservation des messages : taille de l'anneau en mémoire, répertoire de déversement
+    // (null : les messages sortis de l'anneau sont perdus) et taille des segments sur disque
+    private static final class Retention {
+        final Path directory;
+        final int recentMessages;
+        final int segmentBytes;
+
+        Retention(Path directory, int recentMessages, int segmentBytes) {
+            this.directory = directory;
+            this.recentMessages = Math.max(1, recentMessages);
+            this.segmentBytes = segmentBytes;
+        }
+    }
+
+    // Réglages : -Dconferences.dir=<répertoire> (vide : pas de déversement),
+    // -Dconferences.recent=<messages gardés en mémoire par conférence>,
+    // -Dconferences.segment.bytes=<taille d'un segment du journal de déversement>
+    public ConferenceManager() {
+        this(System.getProperty("conferences.dir", "conferences"),
+                Integer.getInteger("conferences.recent", 200),
+                Integer.getInteger("conferences.segment.bytes", 1024 * 1024));
+    }
+
+    public ConferenceManager(String spillDirectory, int recentMessages, int segmentBytes) {
+        this.retention = new Retention(spillDirectory == null || spillDirectory.isEmpty() ? null : Paths.get(spillDirectory),
+                recentMessages, segmentBytes);
+    }
+
     public static class Conference {
-        private String name;
-        private String moderator;
-        private Set<String> participants;
-        private List<String> messages;
-        private boolean isActive;
-        
+        private final String name;
+        private final String moderator;
+        // Recherche d'appartenance en O(1) ; modifiée avec members, sous le verrou de la conférence
+        private final Set<String> participants = ConcurrentHashMap.newKeySet();
+        // Instantané immuable des membres, remplacé à chaque adhésion ou départ
+        private volatile String[] members;
+        // Messages récents (séquence = rang du message dans la conférence) ; les ajouts sont
+        // sérialisés par messageLock pour déverser les messages évincés dans l'ordre
+        private final HistoryRing<String> recentMessages;
+        private final ReentrantLock messageLock = new ReentrantLock();
+        // Nombre de messages publiés, lu sans verrou par les lecteurs
+        private volatile long messageCount = 0;
+        private final Retention retention;
+        // Journal des messages sortis de l'anneau, créé au premier débordement
+        private volatile SegmentedMessageLog spill;
+        private boolean spillFailed = false;
+        private volatile boolean isActive;
+        // Groupe (CREATE_GROUP) ou conférence (CREATE_CONFERENCE) : seul l'affichage diffère
+        private final boolean group;
+        // Index inverse du gestionnaire (null pour une conférence isolée)
+        private final Map<String, Set<String>> index;
+
         public Conference(String name, String moderator) {
+            this(name, moderator, false);
+        }
+
+        public Conference(String name, String moderator, boolean group) {
+            this(name, moderator, group, null, new Retention(null, 200, 0));
+        }
+
+        private Conference(String name, String moderator, boolean group, Map<String, Set<String>> index, Retention retention) {
             this.name = name;
             this.moderator = moderator;
-            this.participants = new HashSet<>();
-            this.messages = new ArrayList<>();
+            this.group = group;
+            this.index = index;
+            this.retention = retention;
+            this.recentMessages = new HistoryRing<>(retention.recentMessages);
             this.isActive = true;
-            this.participants.add(moderator);
+            // Le modérateur n'est indexé qu'une fois la conférence publiée (voir indexModerator)
+            participants.add(moderator);
+            members = new String[] {moderator};
         }
-        
+
         // Getters et setters
         public String getName() { return name; }
         public String getModerator() { return moderator; }
-        public Set<String> getParticipants() { return participants; }
-        public List<String> getMessages() { return messages; }
+        public Set<String> getParticipants() { return Collections.unmodifiableSet(participants); }
+        // Messages récents seulement (au plus la taille de l'anneau) ; voir getMessages(avant, limite)
+        public List<String> getMessages() { return getMessages(Long.MAX_VALUE, recentMessages.capacity()); }
+        public long getMessageCount() { return messageCount; }
         public boolean isActive() { return isActive; }
+        public boolean isGroup() { return group; }
         public void setActive(boolean active) { isActive = active; }
-        
-        public boolean addParticipant(String username) {
+
+        // Instantané des membres pour la diffusion : ne pas modifier, jamais recopié
+        public String[] getMemberSnapshot() {
+            return members;
+        }
+
+        public synchronized boolean addParticipant(String username) {
             if (isActive) {
-                participants.add(username);
+                addMember(username);
                 return true;
             }
             return false;
         }
-        
-        public boolean removeParticipant(String username) {
+
+        public synchronized boolean removeParticipant(String username) {
             if (isActive && !username.equals(moderator)) {
-                participants.remove(username);
+                if (participants.remove(username)) {
+                    String[] current = members;
+                    String[] updated = new String[current.length - 1];
+                    int position = 0;
+                    for (String member : current) {
+                        if (!member.equals(username)) {
+                            updated[position++] = member;
+                        }
+                    }
+                    members = updated;
+                    unindex(username);
+                }
                 return true;
             }
             return false;
         }
-        
+
         public void addMessage(String message) {
-            if (isActive) {
-                messages.add(message);
+            if (!isActive) {
+                return;
+            }
+            messageLock.lock();
+            try {
+                if (!isActive) {
+                    return; // fermée entre-temps : son journal est peut-être déjà supprimé
+                }
+                long sequence = messageCount;
+                // Le message évincé est écrit sur disque AVANT d'être écrasé dans l'anneau :
+                // à tout instant, chaque message est dans l'anneau ou dans le journal
+                long evicted = sequence - recentMessages.capacity();
+                if (evicted >= 0) {
+                    spill(recentMessages.get(evicted));
+                }
+                recentMessages.append(message);
+                messageCount = sequence + 1;
+            } finally {
+                messageLock.unlock();
             }
         }
-        
+
+        // Page d'historique : au plus limit messages de séquence < beforeSequence, du plus ancien
+        // au plus récent. Seule la page est copiée ; le disque n'est lu que pour la partie
+        // sortie de l'anneau. Les séquences sont contiguës : la page suivante commence avant
+        // min(beforeSequence, getMessageCount()) - taille de la page.
+        public List<String> getMessages(long beforeSequence, int limit) {
+            long end = Math.min(beforeSequence, messageCount);
+            long start = Math.max(0, end - Math.max(0, limit));
+            String[] page = new String[(int) (end - start)];
+            long sequence = end - 1;
+            // Du plus récent au plus ancien, tant que l'anneau contient la séquence
+            for (; sequence >= start; sequence--) {
+                String message = recentMessages.get(sequence);
+                if (message == null) {
+                    break;
+                }
+                page[(int) (sequence - start)] = message;
+            }
+            SegmentedMessageLog log = spill;
+            if (sequence >= start && log != null) {
+                for (UserManager.Message old : log.readRange(start, sequence + 1, (int) (sequence + 1 - start))) {
+                    page[(int) (old.getSequence() - start)] = old.getContent();
+                }
+            }
+            List<String> result = new ArrayList<>(page.length);
+            for (String message : page) {
+                if (message != null) {
+                    result.add(message);
+                }
+            }
+            return result;
+        }
+
+        // Sous messageLock : les séquences du journal suivent celles de la conférence (0, 1, 2...)
+        private void spill(String message) {
+            if (retention.directory == null || spillFailed || message == null) {
+                return;
+            }
+            try {
+                if (spill == null) {
+                    Path directory = spillDirectory();
+                    deleteDirectory(directory); // reste d'une conférence du même nom
+                    spill = new SegmentedMessageLog(directory.toString(), retention.segmentBytes);
+                }
+                spill.append(null, message, "CONFERENCE", name, System.currentTimeMillis());
+            } catch (IOException e) {
+                // Les messages plus anciens que l'anneau ne seront plus consultables
+                spillFailed = true;
+                System.err.println("Conference " + name + " : deversement impossible (" + e.getMessage() + ")");
+            }
+        }
+
+        private Path spillDirectory() {
+            String safe = name.replaceAll("[^A-Za-z0-9._-]", "_");
+            if (!safe.equals(name)) {
+                safe += "-" + Integer.toHexString(name.hashCode());
+            }
+            return retention.directory.resolve("conf-" + safe);
+        }
+
+        private void discardMessages() {
+            messageLock.lock();
+            try {
+                if (spill != null) {
+                    spill.close();
+                    spill = null;
+                    try {
+                        deleteDirectory(spillDirectory());
+                    } catch (IOException e) {
+                        System.err.println("Conference " + name + " : suppression du journal impossible (" + e.getMessage() + ")");
+                    }
+                }
+            } finally {
+                messageLock.unlock();
+            }
+        }
+
         public boolean isParticipant(String username) {
             return participants.contains(username);
         }
-        
+
         public boolean isModerator(String username) {
             return moderator.equals(username);
         }
+
+        private synchronized void indexModerator() {
+            if (isActive && index != null) {
+                index.computeIfAbsent(moderator, key -> ConcurrentHashMap.newKeySet()).add(name);
+            }
+        }
+
+        // Désactivation définitive : plus d'adhésion possible, membres retirés de l'index
+        private synchronized String[] close() {
+            if (!isActive) {
+                return null;
+            }
+            isActive = false;
+            for (String member : members) {
+                unindex(member);
+            }
+            return members;
+        }
+
+        private void addMember(String username) {
+            if (participants.add(username)) {
+                String[] current = members;
+                String[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = username;
+                members = updated;
+                if (index != null) {
+                    index.computeIfAbsent(username, key -> ConcurrentHashMap.newKeySet()).add(name);
+                }
+            }
+        }
+
+        private void unindex(String username) {
+            if (index != null) {
+                index.computeIfPresent(username, (key, memberships) -> {
+                    memberships.remove(name);
+                    return memberships.isEmpty() ? null : memberships;
+                });
+            }
+        }
     }
-    
+
     public String createConference(String name, String moderator) {
+        return create(name, moderator, false);
+    }
+
+    public String createGroup(String name, String owner) {
+        return create(name, owner, true);
+    }
+
+    private String create(String name, String moderator, boolean group) {
         if (conferences.containsKey(name)) {
             return null; // Conférence déjà existante
         }
-        
-        Conference conference = new Conference(name, moderator);
-        conferences.put(name, conference);
+        Conference conference = new Conference(name, moderator, group, userConferences, retention);
+        if (conferences.putIfAbsent(name, conference) != null) {
+            return null; // Création concurrente du même nom
+        }
+        conference.indexModerator();
         return name;
     }
-    
+
+    public Conference getConference(String conferenceName) {
+        return conferences.get(conferenceName);
+    }
+
     public boolean addParticipantToConference(String conferenceName, String username) {
         Conference conference = conferences.get(conferenceName);
         if (conference != null && conference.isActive()) {
@@ -75,60 +316,93 @@ public class ConferenceManager {
         }
         return false;
     }
-    
+
     public boolean removeParticipantFromConference(String conferenceName, String username) {
         Conference conference = conferences.get(conferenceName);
-        if (conference != null && conference.isActive()) {
+        if (conference != null && conference.isActive() && conference.isParticipant(username)) {
             return conference.removeParticipant(username);
         }
         return false;
     }
-    
+
     public void addMessageToConference(String conferenceName, String message) {
         Conference conference = conferences.get(conferenceName);
         if (conference != null && conference.isActive()) {
             conference.addMessage(message);
         }
     }
-    
+
     public List<String> getConferenceParticipants(String conferenceName) {
         Conference conference = conferences.get(conferenceName);
         if (conference != null) {
-            return new ArrayList<>(conference.getParticipants());
+            return new ArrayList<>(Arrays.asList(conference.getMemberSnapshot()));
         }
         return new ArrayList<>();
     }
-    
+
+    // Messages récents (anneau en mémoire)
     public List<String> getConferenceMessages(String conferenceName) {
         Conference conference = conferences.get(conferenceName);
         if (conference != null) {
-            return new ArrayList<>(conference.getMessages());
+            return conference.getMessages();
         }
         return new ArrayList<>();
     }
-    
-    public List<String> getUserConferences(String username) {
-        List<String> userConferences = new ArrayList<>();
-        for (Map.Entry<String, Conference> entry : conferences.entrySet()) {
-            if (entry.getValue().isParticipant(username)) {
-                userConferences.add(entry.getKey());
-            }
+
+    // Lecture paginée : au plus limit messages de séquence < beforeSequence (Long.MAX_VALUE : les derniers)
+    public List<String> getConferenceMessages(String conferenceName, long beforeSequence, int limit) {
+        Conference conference = conferences.get(conferenceName);
+        if (conference != null) {
+            return conference.getMessages(beforeSequence, limit);
         }
-        return userConferences;
+        return new ArrayList<>();
     }
-    
+
+    // Lecture de l'index inverse : O(adhésions de l'utilisateur)
+    public List<String> getUserConferences(String username) {
+        Set<String> memberships = userConferences.get(username);
+        return memberships == null ? new ArrayList<>() : new ArrayList<>(memberships);
+    }
+
     public boolean isModerator(String conferenceName, String username) {
         Conference conference = conferences.get(conferenceName);
         return conference != null && conference.isModerator(username);
     }
-    
-    public void closeConference(String conferenceName, String moderator) {
+
+    // Fermeture par le modérateur : la conférence disparaît (son nom redevient libre)
+    // et chaque participant est retiré de l'index inverse
+    public boolean closeConference(String conferenceName, String moderator) {
+        return closeAndGetMembers(conferenceName, moderator) != null;
+    }
+
+    // Variante qui renvoie les membres au moment de la fermeture (pour les prévenir), ou null
+    public String[] closeAndGetMembers(String conferenceName, String moderator) {
         Conference conference = conferences.get(conferenceName);
-        if (conference != null && conference.isModerator(moderator)) {
-            conference.setActive(false);
+        if (conference == null || !conference.isModerator(moderator)) {
+            return null;
+        }
+        String[] members = conference.close();
+        if (members != null) {
+            // Journal supprimé AVANT de libérer le nom : une conférence recréée sous ce nom
+            // ne peut pas voir son propre répertoire de déversement effacé
+            conference.discardMessages();
+            conferences.remove(conferenceName, conference);
+        }
+        return members;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
         }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
     }
-    
+
     public List<String> getActiveConferences() {
         List<String> activeConferences = new ArrayList<>();
         for (Map.Entry<String, Conference> entry : conferences.entrySet()) {
@@ -138,4 +412,4 @@ public class ConferenceManager {
         }
         return activeConferences;
     }
-} 
\ No newline at end of file
+}
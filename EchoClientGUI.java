@@ -1,20 +1,46 @@
 import java.awt.*;
-import java.io.*;
-import java.net.*;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.swing.*;
 
 public class EchoClientGUI extends JFrame {
 
-    private JTextArea chatArea;
+    // Fil de discussion borné (-Dchat.transcript.lines, 5000 par défaut) : seules les lignes
+    // visibles sont dessinées, et les lignes reçues sont regroupées en une mise à jour de l'EDT
+    // par intervalle d'affichage, quel que soit le débit des messages
+    private static final int TRANSCRIPT_LINES = Integer.getInteger("chat.transcript.lines", 5000);
+    private static final int RENDER_INTERVAL_MS = 33;
+    private JList<String> chatList;
+    private JScrollPane chatScrollPane;
+    private TranscriptModel transcript;
+    private Timer renderTimer;
+    // Lignes en attente d'affichage, bornées elles aussi (les plus anciennes sont écartées)
+    private final ArrayDeque<String> pendingLines = new ArrayDeque<>();
+    private boolean flushScheduled = false;
     private JTextField inputField;
-    private PrintWriter out;
-    private BufferedReader in;
-    private Socket socket;
-    private int clientNumber = 0;
+    // Connexion, poignée de main, reprise de session et protocole (voir ChatClient)
+    private ChatClient client;
+    // Tramage binaire proposé au serveur (-Dchat.framing=text pour rester en protocole texte)
+    private static final boolean PREFER_BINARY = !"text".equalsIgnoreCase(System.getProperty("chat.framing", "binary"));
+    // Compression des envois groupés du serveur (historique, listes), utile sur une liaison lente
+    // (-Dchat.compression=false pour la désactiver) ; sans effet en protocole texte
+    private static final boolean PREFER_COMPRESSION = Boolean.parseBoolean(System.getProperty("chat.compression", "true"));
+    // Serveur (ou nœud d'une grappe) : -Dchat.host=... -Dchat.port=...
+    private static final String SERVER_HOST = System.getProperty("chat.host", "localhost");
+    private static final int SERVER_PORT = Integer.getInteger("chat.port", 12345);
     private String pseudo = "";
-    private boolean pseudoSet = false;
+    private volatile boolean pseudoSet = false;
+    // Ligne d'identité (AUTH: ou REGISTER:) passée à ChatClient.connect, oubliée une fois utilisée
+    private String identity;
     // Formateur pour l'horodatage
     private DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
     // Nouveau: Map pour stocker les clients disponibles
@@ -87,7 +113,8 @@ public class EchoClientGUI extends JFrame {
             String username = usernameField.getText();
             String password = new String(passwordField.getPassword());
             if (login(username, password)) {
-                pseudo = username;
+                pseudo = username.trim();
+                identity = AuthService.AUTH + pseudo + ":" + password;
                 showChatInterface();
             }
         });
@@ -96,7 +123,10 @@ public class EchoClientGUI extends JFrame {
             String username = usernameField.getText();
             String password = new String(passwordField.getPassword());
             if (register(username, password)) {
-                JOptionPane.showMessageDialog(this, "Inscription reussie ! Vous pouvez maintenant vous connecter.", "Succes", JOptionPane.INFORMATION_MESSAGE);
+                // Le serveur crée le compte puis ouvre directement la session
+                pseudo = username.trim();
+                identity = AuthService.REGISTER + pseudo + ":" + password;
+                showChatInterface();
             }
         });
 
@@ -124,8 +154,7 @@ public class EchoClientGUI extends JFrame {
             return false;
         }
         
-        // Pour l'instant, accepter toute connexion avec des champs valides
-        // Plus tard, vous pourrez implementer la vraie authentification
+        // Le mot de passe est vérifié par le serveur pendant la poignée de main (AUTH_FAILED si refusé)
         return true;
     }
 
@@ -147,8 +176,7 @@ public class EchoClientGUI extends JFrame {
             return false;
         }
         
-        // Pour l'instant, accepter toute inscription avec des champs valides
-        // Plus tard, vous pourrez implementer la vraie inscription
+        // Le compte est créé par le serveur pendant la poignée de main (AUTH_FAILED si le nom est pris)
         return true;
     }
 
@@ -172,10 +200,33 @@ public class EchoClientGUI extends JFrame {
         topPanel.add(conferenceButton);
         topPanel.add(groupButton);
 
-        // Zone de chat
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        // Zone de chat : hauteur de ligne fixe, la JList ne mesure ni ne dessine les lignes
+        // hors de la vue ; la largeur suit celle de la fenêtre (pas de défilement horizontal)
+        transcript = new TranscriptModel(TRANSCRIPT_LINES);
+        chatList = new JList<String>(transcript) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+        };
+        Font chatFont = UIManager.getFont("TextArea.font");
+        if (chatFont != null) {
+            chatList.setFont(chatFont);
+        }
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2);
+        chatList.setFixedCellWidth(1);
+        chatScrollPane = new JScrollPane(chatList);
+        chatScrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        Timer timer = new Timer(RENDER_INTERVAL_MS, e -> flushLines());
+        timer.setRepeats(false);
+        synchronized (pendingLines) {
+            if (renderTimer != null) {
+                renderTimer.stop();
+            }
+            renderTimer = timer;
+            pendingLines.clear();
+            flushScheduled = false;
+        }
 
         // Panel inferieur avec saisie et boutons
         bottomPanel = new JPanel(new BorderLayout());
@@ -216,147 +267,202 @@ public class EchoClientGUI extends JFrame {
     private void createConference() {
         String conferenceName = JOptionPane.showInputDialog(this, "Nom de la conference:", "Nouvelle conference", JOptionPane.QUESTION_MESSAGE);
         if (conferenceName != null && !conferenceName.trim().isEmpty()) {
-            if (out != null) {
-                out.println("CREATE_CONFERENCE:" + conferenceName);
-            }
+            sendCommand("CREATE_CONFERENCE:" + conferenceName);
         }
     }
 
     private void createGroup() {
         String groupName = JOptionPane.showInputDialog(this, "Nom du groupe:", "Nouveau groupe", JOptionPane.QUESTION_MESSAGE);
         if (groupName != null && !groupName.trim().isEmpty()) {
-            if (out != null) {
-                out.println("CREATE_GROUP:" + groupName);
-            }
+            sendCommand("CREATE_GROUP:" + groupName);
         }
     }
 
     private void disconnect() {
-        try {
-            if (out != null) {
-                out.println("DISCONNECT");
-            }
-            if (socket != null) {
-                socket.close();
+        // Départ volontaire : pas de reprise de session ; on laisse partir "exit" avant de quitter
+        if (client != null) {
+            try {
+                client.disconnect().get(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // Fermeture best-effort
             }
-            String timestamp = getCurrentTimestamp();
-            chatArea.append("[" + timestamp + "] Deconnecte du serveur.\n");
-            System.exit(0);
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        String timestamp = getCurrentTimestamp();
+        appendLine("[" + timestamp + "] Deconnecte du serveur.");
+        System.exit(0);
     }
 
     // Nouvelle méthode pour demander la liste des clients
     private void requestClientList() {
-        if (out != null) {
-            out.println("/list");
-        }
+        sendCommand("/list");
     }
 
-    // Connexion au serveur
+    // Connexion au serveur : le réseau et le protocole sont gérés par ChatClient,
+    // la fenêtre ne fait qu'afficher ses événements
     private void connectToServer() {
-        try {
-            socket = new Socket("localhost", 12345); 
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+        if (client == null) {
+            ChatClient.Options options = new ChatClient.Options();
+            options.host = SERVER_HOST;
+            options.port = SERVER_PORT;
+            options.binary = PREFER_BINARY;
+            options.compression = PREFER_COMPRESSION;
+            client = new ChatClient(options, new ClientEvents());
+        }
+        String line = identity != null ? identity : pseudo;
+        identity = null;
+        client.connect(line).whenComplete((accepted, error) -> {
+            if (error != null) {
+                String timestamp6 = getCurrentTimestamp();
+                appendLine("[" + timestamp6 + "] Erreur de connexion : " + error.getMessage());
+            }
+        });
+    }
 
+    // Événements de ChatClient, reçus sur le thread réseau : les lignes passent par appendLine,
+    // le reste de l'interface est modifié sur l'EDT
+    private final class ClientEvents implements ChatClient.Listener {
+        @Override
+        public void onConnected(ChatClient connection) {
             String timestamp = getCurrentTimestamp();
-            chatArea.append("[" + timestamp + "] Connecte au serveur.\n");
-
-            // Thread pour lire les messages entrants
-            new Thread(() -> {
-                String response;
-                try {
-                    while ((response = in.readLine()) != null) {
-                        System.out.println("Message recu: '" + response + "'"); 
-                        
-                        if (response.equals("REQUEST_PSEUDO")) {
-                            // Envoyer seulement le pseudo, pas la commande LOGIN
-                            out.println(pseudo);
-                        } else if (response.startsWith("CLIENT_NUMBER:")) {
-                            try {
-                                String[] parts = response.split(":");
-                                if (parts.length >= 2) {
-                                    String numberStr = parts[1].trim();
-                                    clientNumber = Integer.parseInt(numberStr);
-                                    // Titre avec seulement le nom d'utilisateur
-                                    setTitle(pseudo); 
-                                    String timestamp3 = getCurrentTimestamp();
-                                    chatArea.append("[" + timestamp3 + "] Numero de client attribue : " + clientNumber + "\n");
-                                }
-                            } catch (NumberFormatException e) {
-                                chatArea.append("Erreur parsing numero client: " + response + "\n");
-                            }
-                        } else if (response.startsWith("PSEUDO_ACCEPTED:")) {
-                            String[] parts = response.split(":");
-                            if (parts.length >= 2) {
-                                pseudo = parts[1].trim();
-                                pseudoSet = true;
-                                // Titre avec seulement le nom d'utilisateur
-                                setTitle(pseudo);
-                                String timestamp4 = getCurrentTimestamp();
-                                chatArea.append("[" + timestamp4 + "] Pseudo accepte : " + pseudo + "\n");
-                                chatArea.append("[" + timestamp4 + "] Vous pouvez maintenant communiquer !\n");
-                                
-                                SwingUtilities.invokeLater(() -> requestClientList());
-                            }
-                        } else if (response.contains("Liste des clients connectes:")) {
-                            updateAvailableClients(response);
-                            chatArea.append(response + "\n");
-                        } else if (response.startsWith("CONFERENCE_CREATED:")) {
-                            String[] parts = response.split(":");
-                            if (parts.length >= 2) {
-                                String confName = parts[1];
-                                chatArea.append("[" + getCurrentTimestamp() + "] Conference creee : " + confName + "\n");
-                            }
-                        } else if (response.startsWith("GROUP_CREATED:")) {
-                            String[] parts = response.split(":");
-                            if (parts.length >= 2) {
-                                String groupName = parts[1];
-                                chatArea.append("[" + getCurrentTimestamp() + "] Groupe cree : " + groupName + "\n");
-                            }
-                        } else {
-                            chatArea.append(response + "\n");
-                        }
-                    }
-                } catch (IOException ex) {
-                    String timestamp5 = getCurrentTimestamp();
-                    chatArea.append("[" + timestamp5 + "] Deconnecte du serveur.\n");
+            appendLine("[" + timestamp + "] Connecte au serveur.");
+        }
+
+        @Override
+        public void onAccepted(ChatClient connection, String acceptedPseudo, int clientNumber) {
+            String timestamp4 = getCurrentTimestamp();
+            appendLine("[" + timestamp4 + "] Numero de client attribue : " + clientNumber);
+            appendLine("[" + timestamp4 + "] Pseudo accepte : " + acceptedPseudo);
+            appendLine("[" + timestamp4 + "] Vous pouvez maintenant communiquer !");
+            pseudoSet = true;
+            SwingUtilities.invokeLater(() -> {
+                pseudo = acceptedPseudo;
+                // Titre avec seulement le nom d'utilisateur
+                setTitle(pseudo);
+            });
+        }
+
+        @Override
+        public void onMessage(ChatClient connection, String line) {
+            appendLine(line);
+        }
+
+        @Override
+        public void onHistoryResumed(ChatClient connection, int missed) {
+            appendLine("[" + getCurrentTimestamp() + "] Session reprise, " + missed + " message(s) manque(s)");
+        }
+
+        @Override
+        public void onPresenceSnapshot(ChatClient connection, Map<Integer, String> clients) {
+            SwingUtilities.invokeLater(() -> applyPresenceSnapshot(clients));
+        }
+
+        @Override
+        public void onUserJoined(ChatClient connection, int clientNumber, String joined) {
+            SwingUtilities.invokeLater(() -> {
+                availableClients.put(clientNumber, joined);
+                recipientCombo.addItem(joined);
+            });
+        }
+
+        @Override
+        public void onUserLeft(ChatClient connection, int clientNumber, String left) {
+            SwingUtilities.invokeLater(() -> {
+                if (availableClients.remove(clientNumber) != null) {
+                    recipientCombo.removeItem(left);
                 }
-            }).start();
+            });
+        }
+
+        @Override
+        public void onConferenceCreated(ChatClient connection, String name, boolean group) {
+            appendLine("[" + getCurrentTimestamp() + "] " + (group ? "Groupe cree : " : "Conference creee : ") + name);
+        }
+
+        @Override
+        public void onRefused(ChatClient connection, String reason) {
+            pseudoSet = false;
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(EchoClientGUI.this, "Connexion refusee : " + reason, "Erreur", JOptionPane.ERROR_MESSAGE);
+                setTitle("Chat Client - Connexion");
+                showLoginInterface();
+            });
+        }
+
+        @Override
+        public void onDisconnected(ChatClient connection, IOException cause) {
+            pseudoSet = false;
+            String timestamp5 = getCurrentTimestamp();
+            appendLine("[" + timestamp5 + "] Deconnecte du serveur.");
+        }
 
-        } catch (IOException e) {
-            String timestamp6 = getCurrentTimestamp();
-            chatArea.append("[" + timestamp6 + "] Erreur de connexion : " + e.getMessage() + "\n");
+        @Override
+        public void onReconnecting(ChatClient connection, long delayMillis) {
+            appendLine("[" + getCurrentTimestamp() + "] Reconnexion dans " + (delayMillis / 1000) + " s...");
         }
     }
 
-    // Nouvelle méthode pour mettre à jour la liste des clients disponibles
-    private void updateAvailableClients(String clientListMessage) {
+    private void sendCommand(String command) {
+        reportSendFailure(client.sendCommand(command));
+    }
+
+    // Les envois sont asynchrones : seul un échec est signalé
+    private void reportSendFailure(CompletableFuture<Void> sent) {
+        sent.whenComplete((ignored, error) -> {
+            if (error != null) {
+                appendLine("[" + getCurrentTimestamp() + "] Erreur d'envoi : " + error.getMessage());
+            }
+        });
+    }
+
+    // Instantané de présence : reconstruit entièrement la liste des destinataires
+    // (connexion ou resynchronisation) ; les versions sont suivies par ChatClient
+    private void applyPresenceSnapshot(Map<Integer, String> clients) {
         availableClients.clear();
         recipientCombo.removeAllItems();
         recipientCombo.addItem("Tous");
-        
-        String[] parts = clientListMessage.split(":");
-        if (parts.length >= 2) {
-            String clientsPart = parts[1].trim();
-            if (!clientsPart.equals("aucun")) {
-                String[] clientEntries = clientsPart.split(",");
-                for (String entry : clientEntries) {
-                    String[] clientInfo = entry.trim().split(":");
-                    if (clientInfo.length >= 2) {
-                        try {
-                            int clientNum = Integer.parseInt(clientInfo[0].trim());
-                            String clientPseudo = clientInfo[1].trim();
-                            availableClients.put(clientNum, clientPseudo);
-                            recipientCombo.addItem(clientPseudo);
-                        } catch (NumberFormatException e) {
-                            // Ignorer les entrées invalides
-                        }
-                    }
-                }
+        for (Map.Entry<Integer, String> entry : clients.entrySet()) {
+            availableClients.put(entry.getKey(), entry.getValue());
+            recipientCombo.addItem(entry.getValue());
+        }
+    }
+
+    // Appelable depuis n'importe quel thread : la ligne est mise en attente et le premier ajout
+    // d'un intervalle arme le minuteur d'affichage, les suivants rejoignent le même lot
+    private void appendLine(String line) {
+        Timer timer;
+        synchronized (pendingLines) {
+            if (pendingLines.size() == TRANSCRIPT_LINES) {
+                pendingLines.pollFirst();
             }
+            pendingLines.addLast(line);
+            timer = renderTimer;
+            if (flushScheduled || timer == null) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        timer.start();
+    }
+
+    // Exécuté sur l'EDT : un seul ajout au modèle pour tout le lot, puis défilement vers la
+    // dernière ligne si la vue y était déjà (on ne déplace pas un utilisateur qui relit)
+    private void flushLines() {
+        List<String> batch;
+        synchronized (pendingLines) {
+            flushScheduled = false;
+            if (pendingLines.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pendingLines);
+            pendingLines.clear();
+        }
+        JScrollBar bar = chatScrollPane.getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - chatList.getFixedCellHeight();
+        transcript.appendAll(batch);
+        if (atBottom) {
+            chatList.ensureIndexIsVisible(transcript.getSize() - 1);
         }
     }
 
@@ -368,27 +474,23 @@ public class EchoClientGUI extends JFrame {
     private void sendMessage() {
         if (!pseudoSet) {
             String timestamp = getCurrentTimestamp();
-            chatArea.append("[" + timestamp + "] Veuillez attendre que votre pseudo soit accepte.\n");
+            appendLine("[" + timestamp + "] Veuillez attendre que votre pseudo soit accepte.");
             return;
         }
         
         String message = inputField.getText();
         if (message.isEmpty()) return;
 
-        // Envoyer directement le message au serveur (plus de conversion)
-        out.println(message);
         inputField.setText("");
 
         if (message.equalsIgnoreCase("exit")) {
-            try {
-                socket.close(); 
-                String timestamp2 = getCurrentTimestamp();
-                chatArea.append("[" + timestamp2 + "] Deconnexion.\n");
-            } catch (IOException e) {
-                String timestamp3 = getCurrentTimestamp();
-                chatArea.append("[" + timestamp3 + "] Erreur de fermeture : " + e.getMessage() + "\n");
-            }
+            // disconnect envoie lui-même "exit" et empêche la reprise automatique
+            client.disconnect();
+            String timestamp2 = getCurrentTimestamp();
+            appendLine("[" + timestamp2 + "] Deconnexion.");
+            return;
         }
+        reportSendFailure(client.sendInput(message));
     }
 
     public static void main(String[] args) {
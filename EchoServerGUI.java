@@ -1,40 +1,26 @@
 import java.awt.*;
-import java.io.*;
-import java.net.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
 
+// Fenêtre de suivi du serveur : simple observateur du journal asynchrone.
+// Elle n'affiche que les dernières lignes (MAX_LINES) et regroupe les mises à jour
+// en un seul passage sur l'EDT, quel que soit le débit du serveur.
 public class EchoServerGUI extends JFrame {
 
-    private JTextArea logArea;
-    private ServerSocket serverSocket;
-    private AtomicInteger clientCounter = new AtomicInteger(0);
-    // Map pour stocker tous les clients connectés avec leurs pseudos
-    private Map<Integer, ClientInfo> clients = new ConcurrentHashMap<>();
-    // Formateur pour l'horodatage
-    private DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
-    // Historique des messages (limité à 100 messages pour éviter la surcharge mémoire)
-    private List<String> messageHistory = new ArrayList<>();
-    private static final int MAX_HISTORY_SIZE = 100;
+    private static final int MAX_LINES = 1000;
 
-    private static class ClientInfo {
-        PrintWriter out;
-        String pseudo;
-        
-        ClientInfo(PrintWriter out, String pseudo) {
-            this.out = out;
-            this.pseudo = pseudo;
-        }
-    }
+    private final JTextArea logArea;
+    // Lignes en attente d'affichage, bornées elles aussi (les plus anciennes sont écartées)
+    private final ArrayDeque<String> pendingLines = new ArrayDeque<>();
+    private boolean flushScheduled = false;
 
-    public EchoServerGUI() {
-        setTitle("Serveur Echo - Chat Multi-clients");
+    public EchoServerGUI(ServerConfig config, AsyncLogger logger) {
+        setTitle("Serveur Echo - Chat Multi-clients (" + config.mode.name().toLowerCase() + ")");
         setSize(500, 400);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
 
@@ -42,243 +28,59 @@ public class EchoServerGUI extends JFrame {
         logArea.setEditable(false);
         add(new JScrollPane(logArea), BorderLayout.CENTER);
 
+        logger.addListener(this::onLogBatch);
         setVisible(true);
-        startServer();
     }
 
-    // Méthode pour démarrer le serveur
-    private void startServer() {
-        new Thread(() -> {
-            try {
-                serverSocket = new ServerSocket(12345); 
-                log("Serveur en ecoute sur le port 12345...");
-                log("En attente de connexions clients...");
-
-                while (true) {
-                    Socket clientSocket = serverSocket.accept(); 
-                    int clientNumber = clientCounter.incrementAndGet(); 
-                    log("Client " + clientNumber + " connecte : " + clientSocket.getInetAddress());
-
-                    new Thread(() -> handleClient(clientSocket, clientNumber)).start();
+    // Appelé depuis le thread du journal
+    private void onLogBatch(List<String> batch) {
+        synchronized (pendingLines) {
+            for (String line : batch) {
+                if (pendingLines.size() == MAX_LINES) {
+                    pendingLines.pollFirst();
                 }
-
-            } catch (IOException e) {
-                log("Erreur serveur : " + e.getMessage());
+                pendingLines.addLast(line);
             }
-        }).start();
-    }
-
-    // Méthode pour obtenir l'horodatage actuel
-    private String getCurrentTimestamp() {
-        return LocalDateTime.now().format(timeFormatter);
-    }
-
-    // Méthode pour ajouter un message à l'historique
-    private void addToHistory(String message) {
-        messageHistory.add(message);
-        // Limiter la taille de l'historique
-        if (messageHistory.size() > MAX_HISTORY_SIZE) {
-            messageHistory.remove(0);
-        }
-    }
-
-    // Méthode pour envoyer l'historique à un client
-    private void sendHistory(int clientNumber) {
-        ClientInfo clientInfo = clients.get(clientNumber);
-        if (clientInfo != null && !messageHistory.isEmpty()) {
-            String timestamp = getCurrentTimestamp();
-            clientInfo.out.println("[" + timestamp + "] --- Historique de la conversation ---");
-            
-            for (String message : messageHistory) {
-                clientInfo.out.println(message);
+            if (flushScheduled) {
+                return;
             }
-            
-            clientInfo.out.println("[" + timestamp + "] --- Fin de l'historique ---");
+            flushScheduled = true;
         }
+        SwingUtilities.invokeLater(this::flushLines);
     }
 
-    // Méthode de gestion des messages du client
-    private void handleClient(Socket clientSocket, int clientNumber) {
-        try (
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)
-        ) {
-            // Demander le pseudo au client
-            out.println("REQUEST_PSEUDO");
-            
-            String pseudo = in.readLine();
-            if (pseudo == null || pseudo.trim().isEmpty()) {
-                pseudo = "Client" + clientNumber;
-            }
-            
-            // Stocker les informations du client
-            clients.put(clientNumber, new ClientInfo(out, pseudo));
-            out.println("CLIENT_NUMBER:" + clientNumber);
-            out.println("PSEUDO_ACCEPTED:" + pseudo);
-            
-            // Envoyer l'historique AVANT d'envoyer la liste des clients
-            sendHistory(clientNumber);
-            
-            sendClientList(clientNumber);
-            
-            String timestamp = getCurrentTimestamp();
-            String joinMessage = "[" + timestamp + "] " + pseudo + " a rejoint le chat";
-            broadcastMessage(joinMessage, clientNumber);
-            addToHistory(joinMessage); // Ajouter à l'historique
-            log("[" + timestamp + "] " + pseudo + " (Client " + clientNumber + ") a rejoint le chat");
-            
-            // Mettre à jour la liste des clients pour tous
-            broadcastClientList();
-            
-            String message;
-            while ((message = in.readLine()) != null) {
-                ClientInfo clientInfo = clients.get(clientNumber);
-                if (clientInfo != null) {
-                    // Vérifier si c'est un message privé avec @<pseudo>
-                    if (message.startsWith("@")) {
-                        handlePrivateMessageByPseudo(message, clientNumber, clientInfo);
-                    } else if (message.equals("/list")) {
-                        // Envoyer la liste des clients
-                        sendClientList(clientNumber);
-                    } else if (message.equalsIgnoreCase("exit")) {
-                        String exitMessage = "[" + timestamp + "] " + clientInfo.pseudo + " a quitte la session.";
-                        log(exitMessage);
-                        break;
-                    } else {
-                        String timestamp2 = getCurrentTimestamp();
-                        String formattedMessage = "[" + timestamp2 + "] " + clientInfo.pseudo + " : " + message;
-                        log(formattedMessage);
-                        broadcastMessage(formattedMessage, clientNumber);
-                        addToHistory(formattedMessage); // Ajouter à l'historique
-                    }
-                }
+    // Exécuté sur l'EDT : ajoute d'un coup les lignes en attente puis retire les plus anciennes
+    private void flushLines() {
+        StringBuilder text = new StringBuilder();
+        synchronized (pendingLines) {
+            flushScheduled = false;
+            String line;
+            while ((line = pendingLines.pollFirst()) != null) {
+                text.append(line).append("\n");
             }
-
-            ClientInfo clientInfo = clients.remove(clientNumber);
-            if (clientInfo != null) {
-                String timestamp3 = getCurrentTimestamp();
-                String leaveMessage = "[" + timestamp3 + "] " + clientInfo.pseudo + " a quitte le chat";
-                broadcastMessage(leaveMessage, -1);
-                addToHistory(leaveMessage); // Ajouter à l'historique
-                broadcastClientList();
-            }
-            clientSocket.close();
-            
-        } catch (IOException e) {
-            log("Erreur client " + clientNumber + " : " + e.getMessage());
-            clients.remove(clientNumber);
         }
-    }
+        logArea.append(text.toString());
 
-    // Nouvelle méthode simplifiée pour gérer les messages privés par pseudo
-    private void handlePrivateMessageByPseudo(String message, int senderClientNumber, ClientInfo senderInfo) {
-        try {
-            // Format: @<pseudo> <message>
-            String[] parts = message.split(" ", 2);
-            if (parts.length >= 2) {
-                String targetPseudo = parts[0].substring(1); // Enlever le @
-                String privateMessage = parts[1];
-                
-                // Chercher le client par pseudo
-                ClientInfo targetClient = null;
-                for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
-                    if (entry.getValue().pseudo.equals(targetPseudo)) {
-                        targetClient = entry.getValue();
-                        break;
-                    }
-                }
-                
-                if (targetClient != null) {
-                    String timestamp = getCurrentTimestamp();
-                    String formattedPrivateMessage = "[" + timestamp + "] [PRIVE] " + senderInfo.pseudo + " : " + privateMessage;
-                    
-                    // Envoyer au destinataire
-                    targetClient.out.println(formattedPrivateMessage);
-                    
-                    // Envoyer une confirmation à l'expéditeur
-                    String confirmationMessage = "[" + timestamp + "] [PRIVE] -> " + targetPseudo + " : " + privateMessage;
-                    senderInfo.out.println(confirmationMessage);
-                    
-                    log("[" + timestamp + "] Message privé de " + senderInfo.pseudo + " vers " + targetPseudo + " : " + privateMessage);
-                } else {
-                    String timestamp = getCurrentTimestamp();
-                    String errorMessage = "[" + timestamp + "] Erreur: Utilisateur '" + targetPseudo + "' non trouve.";
-                    senderInfo.out.println(errorMessage);
-                }
-            } else {
-                String timestamp = getCurrentTimestamp();
-                String errorMessage = "[" + timestamp + "] Format incorrect. Utilisez: @<pseudo> <message>";
-                senderInfo.out.println(errorMessage);
-            }
-        } catch (Exception e) {
-            String timestamp = getCurrentTimestamp();
-            String errorMessage = "[" + timestamp + "] Erreur lors de l'envoi du message privé.";
-            senderInfo.out.println(errorMessage);
-        }
-    }
-
-    // Méthode pour envoyer la liste des clients à un client spécifique
-    private void sendClientList(int clientNumber) {
-        ClientInfo clientInfo = clients.get(clientNumber);
-        if (clientInfo != null) {
-            String timestamp = getCurrentTimestamp();
-            StringBuilder clientList = new StringBuilder("[" + timestamp + "] Liste des clients connectes:");
-            boolean hasOtherClients = false;
-            
-            for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
-                int num = entry.getKey();
-                ClientInfo info = entry.getValue();
-                if (num != clientNumber) { 
-                    clientList.append(" ").append(num).append(":").append(info.pseudo).append(",");
-                    hasOtherClients = true;
-                }
-            }
-            
-            if (hasOtherClients) {
-                if (clientList.charAt(clientList.length() - 1) == ',') {
-                    clientList.setLength(clientList.length() - 1);
-                }
-            } else {
-                clientList.append(" : aucun");
-            }
-            
-            clientInfo.out.println(clientList.toString());
-            
-            // Envoyer les commandes disponibles
-            String commandsMessage = "[" + timestamp + "] Commandes disponibles: @<pseudo> <message>, /list, exit";
-            clientInfo.out.println(commandsMessage);
-        }
-    }
-
-    // Méthode pour diffuser la liste des clients à tous les clients
-    private void broadcastClientList() {
-        for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
-            int clientNum = entry.getKey();
-            sendClientList(clientNum);
-        }
-    }
-
-    // Méthode pour diffuser un message à tous les clients
-    private void broadcastMessage(String message, int senderClientNumber) {
-        for (Map.Entry<Integer, ClientInfo> entry : clients.entrySet()) {
-            int clientNum = entry.getKey();
-            ClientInfo clientInfo = entry.getValue();
-            
+        Document document = logArea.getDocument();
+        Element root = document.getDefaultRootElement();
+        int excess = root.getElementCount() - MAX_LINES;
+        if (excess > 0) {
             try {
-                clientInfo.out.println(message);
-            } catch (Exception e) {
-                log("Erreur envoi au client " + clientNum + " : " + e.getMessage());
-                clients.remove(clientNum);
+                document.remove(0, root.getElement(excess - 1).getEndOffset());
+            } catch (BadLocationException e) {
+                // Impossible : les bornes viennent du document lui-même
             }
         }
     }
 
-    // Affichage dans l'interface
-    private void log(String message) {
-        SwingUtilities.invokeLater(() -> logArea.append(message + "\n"));
-    }
-
-    public static void main(String[] args) {
-        new EchoServerGUI(); // Lance le serveur
+    public static void main(String[] args) throws IOException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        if (config.headless || GraphicsEnvironment.isHeadless()) {
+            ChatServer.main(args);
+            return;
+        }
+        AsyncLogger logger = AsyncLogger.fromConfig(config);
+        SwingUtilities.invokeLater(() -> new EchoServerGUI(config, logger));
+        new ChatServer(config, logger).start(); // Lance le serveur
     }
 }
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Ligne du protocole encodée une seule fois en UTF-8 (avec le \n final).
+// Immuable : une même instance est partagée par tous les destinataires d'une diffusion
+// et par l'historique, sans réencodage ni copie par client.
+// La trame binaire équivalente (FrameCodec.LINE, ou FrameCodec.HISTORY pour une ligne
+// numérotée de l'historique) n'est calculée qu'au premier client en tramage binaire,
+// puis partagée de la même façon.
+final class EncodedLine {
+
+    private final String text;
+    // Séquence dans l'historique du chat, -1 pour une ligne hors historique. Seules les trames
+    // binaires la transportent ; en texte la ligne est inchangée.
+    private final long sequence;
+    private final byte[] bytes;
+    // Calcul idempotent : une course ne fait qu'encoder deux fois la même trame
+    private volatile byte[] frame;
+    // Ligne toujours envoyée en texte, même à un client en binaire (accusé de négociation)
+    private final boolean textOnly;
+
+    private EncodedLine(String text, boolean textOnly, long sequence) {
+        this.text = text;
+        this.textOnly = textOnly;
+        this.sequence = sequence;
+        // En protocole texte, un saut de ligne dans un message (reçu en binaire)
+        // serait lu comme une nouvelle commande : il est remplacé par un espace
+        String line = text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0
+                ? text.replace('\n', ' ').replace('\r', ' ')
+                : text;
+        this.bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static EncodedLine of(String text) {
+        return new EncodedLine(text, false, -1);
+    }
+
+    static EncodedLine textOnly(String text) {
+        return new EncodedLine(text, true, -1);
+    }
+
+    static EncodedLine sequenced(String text, long sequence) {
+        return new EncodedLine(text, false, sequence);
+    }
+
+    String text() {
+        return text;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    int length() {
+        return bytes.length;
+    }
+
+    private byte[] encoded(boolean binary) {
+        if (!binary || textOnly) {
+            return bytes;
+        }
+        byte[] encodedFrame = frame;
+        if (encodedFrame == null) {
+            encodedFrame = sequence >= 0
+                    ? FrameCodec.encodeHistory(sequence, text)
+                    : FrameCodec.encode(FrameCodec.LINE, text);
+            frame = encodedFrame;
+        }
+        return encodedFrame;
+    }
+
+    // Vue en lecture seule, avec sa propre position (pour les écritures NIO partielles)
+    ByteBuffer buffer(boolean binary) {
+        return ByteBuffer.wrap(encoded(binary)).asReadOnlyBuffer();
+    }
+
+    // Écriture directe du tableau partagé (le flux ne le conserve pas) ; renvoie le nombre d'octets
+    int writeTo(OutputStream out, boolean binary) throws IOException {
+        byte[] encoded = encoded(binary);
+        out.write(encoded);
+        return encoded.length;
+    }
+}
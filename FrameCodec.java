@@ -0,0 +1,337 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Tramage binaire optionnel : [type (1 octet)][longueur (varint)][données].
+// Négocié pendant la poignée de main : en réponse à REQUEST_PSEUDO, le client envoie la
+// ligne FRAMING:BINARY puis directement ses trames (pseudo dans une trame HELLO).
+// Le serveur répond FRAMING:BINARY (dernière ligne texte) puis n'envoie plus que des trames.
+// Un client qui envoie directement son pseudo reste en protocole texte.
+// Avec FRAMING:BINARY+DEFLATE, le client demande en plus la compression serveur -> client :
+// s'il l'accepte, le serveur répond FRAMING:BINARY+DEFLATE (sinon FRAMING:BINARY) et peut
+// regrouper des trames dans des trames COMPRESSED.
+final class FrameCodec {
+
+    static final String NEGOTIATION = "FRAMING:BINARY";
+    static final String NEGOTIATION_DEFLATE = "FRAMING:BINARY+DEFLATE";
+
+    // Taille maximale d'une ligne ou d'une trame reçue
+    static final int MAX_LENGTH = 64 * 1024;
+
+    // Types de trames
+    static final int LINE = 1;    // serveur -> client : une ligne du protocole texte
+    static final int HELLO = 2;   // client -> serveur : ligne d'identité (pseudo, AUTH:, REGISTER:, RESUME:)
+    static final int CHAT = 3;    // message public (peut contenir ':' ou des sauts de ligne)
+    static final int PRIVATE = 4; // [longueur du pseudo sur 2 octets][pseudo][message]
+    static final int COMMAND = 5; // commande : /list, /queues, /presence, exit...
+    static final int HISTORY = 6; // serveur -> client : [séquence sur 8 octets][ligne de l'historique]
+    static final int COMPRESSED = 7; // serveur -> client : bloc deflate (sync flush) de trames complètes
+
+    // Reçoit les lignes (mode texte) puis les trames (mode binaire).
+    // Renvoyer false interrompt le décodage (fin de session).
+    interface Listener {
+        boolean onLine(String line) throws IOException;
+
+        // Les données ne sont valables que pendant l'appel (tampon réutilisé)
+        boolean onFrame(int type, byte[] payload, int offset, int length) throws IOException;
+    }
+
+    private FrameCodec() {
+    }
+
+    static byte[] encode(int type, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        return encode(type, payload, 0, payload.length);
+    }
+
+    static byte[] encode(int type, byte[] payload, int offset, int length) {
+        int header = 1;
+        for (int value = length; (value & ~0x7F) != 0; value >>>= 7) {
+            header++;
+        }
+        byte[] frame = new byte[1 + header + length];
+        frame[0] = (byte) type;
+        int position = 1;
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            frame[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[position++] = (byte) value;
+        System.arraycopy(payload, offset, frame, position, length);
+        return frame;
+    }
+
+    static byte[] encodePrivate(String target, String message) {
+        byte[] targetBytes = target.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + targetBytes.length + messageBytes.length];
+        payload[0] = (byte) (targetBytes.length >>> 8);
+        payload[1] = (byte) targetBytes.length;
+        System.arraycopy(targetBytes, 0, payload, 2, targetBytes.length);
+        System.arraycopy(messageBytes, 0, payload, 2 + targetBytes.length, messageBytes.length);
+        return encode(PRIVATE, payload, 0, payload.length);
+    }
+
+    // Ligne de l'historique avec son numéro de séquence, que le client présente à la reprise
+    static byte[] encodeHistory(long sequence, String line) {
+        byte[] lineBytes = line.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[8 + lineBytes.length];
+        for (int i = 0; i < 8; i++) {
+            payload[i] = (byte) (sequence >>> (56 - 8 * i));
+        }
+        System.arraycopy(lineBytes, 0, payload, 8, lineBytes.length);
+        return encode(HISTORY, payload, 0, payload.length);
+    }
+
+    static long historySequence(byte[] payload, int offset) {
+        long sequence = 0;
+        for (int i = 0; i < 8; i++) {
+            sequence = (sequence << 8) | (payload[offset + i] & 0xFF);
+        }
+        return sequence;
+    }
+
+    static String text(byte[] payload, int offset, int length) {
+        return new String(payload, offset, length, StandardCharsets.UTF_8);
+    }
+
+    // Décodage incrémental, commun au serveur (bloquant et NIO) et au client.
+    // Commence en mode texte ; switchToBinary() peut être appelé depuis onLine,
+    // les octets suivants du même tampon sont alors lus comme des trames.
+    // pause() (depuis le listener) arrête le décodage : feed() rend la main en laissant
+    // les octets suivants dans le tampon, à redonner après resume().
+    static final class Decoder {
+        private boolean binary = false;
+        private boolean paused = false;
+        // Trames COMPRESSED décompressées ici et livrées comme les autres (null : non négocié)
+        private Decompressor decompressor;
+        private byte[] buffer = new byte[256];
+        private int length = 0;
+        // État de la trame en cours (mode binaire)
+        private int frameType = -1;
+        private int frameLength = -1;
+        private int lengthShift = 0;
+
+        void switchToBinary() {
+            binary = true;
+        }
+
+        boolean isBinary() {
+            return binary;
+        }
+
+        void enableDecompression() {
+            if (decompressor == null) {
+                decompressor = new Decompressor();
+            }
+        }
+
+        void pause() {
+            paused = true;
+        }
+
+        void resume() {
+            paused = false;
+        }
+
+        boolean isPaused() {
+            return paused;
+        }
+
+        boolean feed(ByteBuffer in, Listener listener) throws IOException {
+            while (!paused && in.hasRemaining()) {
+                if (!binary) {
+                    byte b = in.get();
+                    if (b == '\n') {
+                        // '\n' ne peut pas apparaître au milieu d'un caractère UTF-8 multi-octets
+                        int lineLength = length;
+                        if (lineLength > 0 && buffer[lineLength - 1] == '\r') {
+                            lineLength--;
+                        }
+                        length = 0;
+                        if (!listener.onLine(text(buffer, 0, lineLength))) {
+                            return false;
+                        }
+                    } else {
+                        ensureCapacity(length + 1, "ligne");
+                        buffer[length++] = b;
+                    }
+                } else if (frameType < 0) {
+                    frameType = in.get() & 0xFF;
+                    frameLength = -1;
+                    lengthShift = 0;
+                    length = 0;
+                } else if (lengthShift >= 0) {
+                    if (!readLength(in.get())) {
+                        continue;
+                    }
+                    if (frameLength == 0 && !deliver(listener)) {
+                        return false;
+                    }
+                } else {
+                    int count = Math.min(in.remaining(), frameLength - length);
+                    in.get(buffer, length, count);
+                    length += count;
+                    if (length == frameLength && !deliver(listener)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        // Accumule un octet de la longueur varint ; renvoie true une fois la longueur complète
+        private boolean readLength(byte b) throws IOException {
+            if (frameLength < 0) {
+                frameLength = 0;
+            }
+            frameLength |= (b & 0x7F) << lengthShift;
+            if ((b & 0x80) != 0) {
+                lengthShift += 7;
+                if (lengthShift > 21) {
+                    throw new IOException("Trame trop longue");
+                }
+                return false;
+            }
+            lengthShift = -1; // longueur complète
+            ensureCapacity(frameLength, "trame");
+            return true;
+        }
+
+        private boolean deliver(Listener listener) throws IOException {
+            int type = frameType;
+            int payloadLength = frameLength;
+            frameType = -1;
+            frameLength = -1;
+            lengthShift = 0;
+            length = 0;
+            if (type == COMPRESSED && decompressor != null) {
+                return decompressor.feed(buffer, payloadLength, listener);
+            }
+            return listener.onFrame(type, buffer, 0, payloadLength);
+        }
+
+        private void ensureCapacity(int needed, String what) throws IOException {
+            if (needed > MAX_LENGTH) {
+                throw new IOException("Taille maximale de " + what + " depassee");
+            }
+            if (needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(MAX_LENGTH, Math.max(needed, buffer.length * 2)));
+            }
+        }
+    }
+
+    // Compression serveur -> client d'une connexion. Les trames d'un même envoi groupé sont
+    // accumulées dans pending() ; drain() les compresse ensemble (trames COMPRESSED) si
+    // elles atteignent le seuil (un historique rejoué, une liste de clients), sinon les rend
+    // telles quelles : une ligne de chat isolée ne paie ni le CPU ni l'en-tête.
+    // Un seul flux deflate par connexion, vidé par SYNC_FLUSH à chaque trame COMPRESSED : le
+    // dictionnaire est conservé d'un envoi à l'autre et les lignes répétitives
+    // ("[HH:mm:ss] pseudo : ...") se compressent d'autant mieux.
+    // Utilisé par un seul thread (rédacteur ou boucle NIO du client) ; end() libère la mémoire native.
+    static final class Compressor {
+        // Octets non compressés par trame COMPRESSED : le pire cas de deflate (blocs stockés,
+        // quelques octets par bloc de 16 Ko) reste loin de MAX_LENGTH
+        private static final int SLICE = MAX_LENGTH / 2;
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final int threshold;
+        private final Pending pending = new Pending();
+        private byte[] output = new byte[8192];
+        // Octets avant et après compression (trames compressées seulement), facultatifs
+        private final LongAdder inputBytes;
+        private final LongAdder outputBytes;
+
+        // Accès direct au tableau interne, sans la copie de toByteArray()
+        private static final class Pending extends ByteArrayOutputStream {
+            byte[] buffer() {
+                return buf;
+            }
+        }
+
+        Compressor(int threshold, LongAdder inputBytes, LongAdder outputBytes) {
+            this.threshold = threshold;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+        }
+
+        OutputStream pending() {
+            return pending;
+        }
+
+        // Octets à écrire pour les trames accumulées depuis le dernier appel. Au-delà du seuil,
+        // une trame COMPRESSED par tranche de SLICE octets : même incompressible, chaque tranche
+        // reste sous MAX_LENGTH une fois dégonflée. Le décodeur du client garde son état d'une
+        // trame COMPRESSED à l'autre, une trame coupée entre deux tranches lui parvient entière.
+        byte[] drain() {
+            int size = pending.size();
+            if (size < threshold) {
+                byte[] raw = pending.toByteArray();
+                pending.reset();
+                return raw;
+            }
+            ByteArrayOutputStream frames = new ByteArrayOutputStream(size / 2 + 16);
+            for (int offset = 0; offset < size; offset += SLICE) {
+                deflater.setInput(pending.buffer(), offset, Math.min(SLICE, size - offset));
+                int length = 0;
+                while (true) {
+                    length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+                    if (length < output.length) {
+                        break; // tout est vidé : sinon le tampon était trop petit, on l'agrandit
+                    }
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                byte[] frame = encode(COMPRESSED, output, 0, length);
+                frames.write(frame, 0, frame.length);
+            }
+            pending.reset();
+            if (inputBytes != null) {
+                inputBytes.add(size);
+                outputBytes.add(frames.size());
+            }
+            return frames.toByteArray();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    // Côté client : décompresse une trame COMPRESSED et décode les trames qu'elle contient
+    private static final class Decompressor {
+        private final Inflater inflater = new Inflater(true);
+        private final Decoder frames = new Decoder();
+        private final byte[] output = new byte[8192];
+
+        Decompressor() {
+            frames.switchToBinary();
+        }
+
+        boolean feed(byte[] payload, int length, Listener listener) throws IOException {
+            inflater.setInput(payload, 0, length);
+            try {
+                int inflated;
+                do {
+                    inflated = inflater.inflate(output);
+                    if (inflated > 0 && !frames.feed(ByteBuffer.wrap(output, 0, inflated), listener)) {
+                        return false;
+                    }
+                } while (inflated > 0);
+            } catch (DataFormatException e) {
+                throw new IOException("Trame compressee invalide : " + e.getMessage());
+            }
+            if (!inflater.needsInput()) {
+                throw new IOException("Trame compressee invalide");
+            }
+            return true;
+        }
+    }
+}
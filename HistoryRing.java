@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+// Historique circulaire de capacité fixe, sans verrou.
+// Un ajout réserve une séquence par getAndIncrement, puis publie l'entrée dans sa case par
+// compareAndSet, seulement si la case contient une séquence plus ancienne : un écrivain
+// retardé d'un tour complet d'anneau n'écrase jamais une entrée plus récente. Les entrées
+// les plus anciennes sont écrasées naturellement.
+// Une lecture renvoie les entrées publiées dans l'ordre des séquences ; une case pas encore
+// publiée (ajout en cours) est sautée, sa diffusion suit l'ajout.
+final class HistoryRing<T> {
+
+    private static final class Entry<T> {
+        final long sequence;
+        final T value;
+
+        Entry(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry<T>> slots;
+    private final int capacity;
+    private final AtomicLong nextSequence = new AtomicLong(0);
+
+    HistoryRing(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    // Ajoute une entrée et renvoie sa séquence
+    long append(T value) {
+        long sequence = nextSequence.getAndIncrement();
+        publish(new Entry<>(sequence, value));
+        return sequence;
+    }
+
+    // Ajoute une entrée construite à partir de sa séquence (ligne qui porte son propre numéro)
+    T appendSequenced(LongFunction<T> factory) {
+        long sequence = nextSequence.getAndIncrement();
+        T value = factory.apply(sequence);
+        publish(new Entry<>(sequence, value));
+        return value;
+    }
+
+    private void publish(Entry<T> entry) {
+        int index = index(entry.sequence);
+        for (;;) {
+            Entry<T> current = slots.get(index);
+            if (current != null && current.sequence > entry.sequence) {
+                return; // écrivain dépassé d'un tour : la case appartient déjà à plus récent
+            }
+            if (slots.compareAndSet(index, current, entry)) {
+                return;
+            }
+        }
+    }
+
+    // Instantané des entrées encore présentes, de la plus ancienne à la plus récente
+    List<T> snapshot() {
+        return snapshot(capacity);
+    }
+
+    // Instantané limité aux "limit" entrées les plus récentes
+    List<T> snapshot(int limit) {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - Math.min(capacity, Math.max(0, limit)));
+        List<T> result = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry<T> entry = slots.get(index(sequence));
+            if (entry != null && entry.sequence == sequence) {
+                result.add(entry.value);
+            }
+            // Séquence plus ancienne (ou case vide) : ajout pas encore publié, sauté sans
+            // arrêter la lecture ; séquence plus récente : case déjà écrasée
+        }
+        return result;
+    }
+
+    // Entrées publiées de séquence >= fromSequence, ou null si l'une d'elles a déjà été
+    // écrasée : l'écart dépasse ce que l'anneau conserve
+    List<T> since(long fromSequence) {
+        long end = nextSequence.get();
+        if (fromSequence < 0 || end - fromSequence > capacity) {
+            return null;
+        }
+        List<T> result = new ArrayList<>((int) Math.max(0, end - fromSequence));
+        for (long sequence = fromSequence; sequence < end; sequence++) {
+            Entry<T> entry = slots.get(index(sequence));
+            if (entry == null || entry.sequence < sequence) {
+                continue; // ajout concurrent pas encore publié
+            }
+            if (entry.sequence > sequence) {
+                return null; // écrasée pendant la lecture
+            }
+            result.add(entry.value);
+        }
+        return result;
+    }
+
+    // Entrée de séquence donnée, ou null si elle n'est pas (encore ou plus) dans l'anneau
+    T get(long sequence) {
+        if (sequence < 0) {
+            return null;
+        }
+        Entry<T> entry = slots.get(index(sequence));
+        return entry != null && entry.sequence == sequence ? entry.value : null;
+    }
+
+    long nextSequence() {
+        return nextSequence.get();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    // Nombre d'entrées actuellement conservées
+    int size() {
+        return (int) Math.min(nextSequence.get(), capacity);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogramme log-linéaire de valeurs positives (typiquement des durées en nanosecondes).
+// Chaque puissance de deux est découpée en 32 sous-intervalles : précision relative ~3 %,
+// 2048 compteurs au total quelle que soit la plage. record() est sans verrou et sans
+// allocation ; il peut être appelé par plusieurs threads en même temps.
+// Exposé tel quel en JMX (LatencyHistogramMBean) par ServerMetrics.
+final class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        total.increment();
+        sum.add(v);
+        long current;
+        while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+            // Un autre thread a relevé le maximum entre-temps : on recommence
+        }
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Borne supérieure de l'intervalle contenant le quantile demandé (0 < quantile <= 1)
+    long percentile(double quantile) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    // Attributs JMX (en microsecondes)
+
+    @Override
+    public long getCount() {
+        return count();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return mean() / 1e3;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return percentile(0.90) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return percentile(0.999) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max() / 1e3;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)); // entre 32 et 63
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,19 @@
+// Vue JMX d'un histogramme de latence (valeurs en microsecondes)
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,477 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+// Moteur serveur non bloquant : un thread accepteur et N boucles d'événements,
+// chacune possédant son propre Selector et les canaux qui lui sont attribués.
+// Le protocole (lignes de texte, ou trames binaires si négociées) est décodé au fil de l'eau.
+public class NioServerEngine {
+
+    private final ChatServer server;
+    private final ServerConfig config;
+    private final int port;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+    private ServerSocketChannel serverChannel;
+
+    NioServerEngine(ChatServer server, ServerConfig config, int port) {
+        this.server = server;
+        this.config = config;
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, config.eventLoops)];
+    }
+
+    void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].thread.start();
+        }
+        Thread acceptor = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptor.start();
+    }
+
+    // Le thread accepteur distribue les nouvelles connexions aux boucles à tour de rôle
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                int clientNumber = server.nextClientNumber();
+                server.metrics().connectionsAccepted.increment();
+                server.log("Client " + clientNumber + " connecte : " + channel.socket().getInetAddress());
+
+                EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                Connection connection = new Connection(channel, clientNumber, loop);
+                loop.execute(connection::register);
+            } catch (IOException e) {
+                server.log("Erreur serveur NIO : " + e.getMessage());
+            }
+        }
+    }
+
+    // Boucle d'événements : un Selector, une file de tâches soumises par les autres threads
+    // et des minuteries (reprise de la lecture d'un client limité en débit)
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Utilisées uniquement dans la boucle
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+        private long timerSequence = 0;
+        private final Thread thread;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        // Depuis la boucle uniquement
+        void schedule(Runnable task, long delayNanos) {
+            timers.add(new Timer(System.nanoTime() + delayNanos, timerSequence++, task));
+        }
+
+        private void runTimers() {
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+                timers.poll().task.run();
+            }
+        }
+
+        // Attente du Selector bornée par la prochaine minuterie
+        private void select() throws IOException {
+            Timer next = timers.peek();
+            if (next == null) {
+                selector.select();
+                return;
+            }
+            long millis = (next.deadline - System.nanoTime() + 999_999) / 1_000_000;
+            if (millis <= 0) {
+                selector.selectNow();
+            } else {
+                selector.select(millis);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    select();
+                    runTasks();
+                    runTimers();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.close();
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    }
+                    // Tâches soumises par la boucle elle-même pendant ce tour (envois différés)
+                    runTasks();
+                } catch (IOException e) {
+                    server.log("Erreur boucle NIO : " + e.getMessage());
+                } catch (RuntimeException e) {
+                    server.log("Erreur inattendue dans la boucle NIO : " + e);
+                }
+            }
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline;
+        final long sequence;
+        final Runnable task;
+
+        Timer(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Connexion d'un client : décodage incrémental des lignes ou trames et écritures
+    // non bloquantes depuis sa file d'envoi bornée
+    class Connection implements FrameCodec.Listener {
+        private final SocketChannel channel;
+        private final int clientNumber;
+        private final EventLoop loop;
+        private SelectionKey key;
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private final FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        private boolean pseudoReceived = false;
+        // Tramage binaire négocié ; lu et modifié uniquement dans la boucle
+        private boolean binary = false;
+        // Compression négociée (FRAMING:BINARY+DEFLATE), utilisée uniquement dans la boucle
+        private FrameCodec.Compressor compressor;
+
+        private final OutboundQueue outbound = config.newOutboundQueue();
+        // Message en cours d'écriture (écriture partielle, fenêtre TCP pleine)
+        private ByteBuffer pendingWrite;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Connection(SocketChannel channel, int clientNumber, EventLoop loop) {
+            this.channel = channel;
+            this.clientNumber = clientNumber;
+            this.loop = loop;
+        }
+
+        // Appelé dans la boucle propriétaire du canal
+        private void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                // Demander le pseudo au client
+                send(ChatServer.REQUEST_PSEUDO);
+            } catch (IOException e) {
+                server.log("Erreur enregistrement client " + clientNumber + " : " + e.getMessage());
+                close();
+            }
+        }
+
+        OutboundQueue outbound() {
+            return outbound;
+        }
+
+        // Peut être appelé depuis n'importe quel thread : l'écriture réelle a lieu dans la boucle.
+        // Renvoie false si la file est saturée. La boucle propriétaire ne doit jamais attendre
+        // sur sa propre file (elle seule la vide), d'où l'interdiction d'attendre dans ce cas.
+        boolean send(EncodedLine message) {
+            return send(message, true);
+        }
+
+        boolean send(EncodedLine message, boolean mayBlock) {
+            if (closed.get()) {
+                return true;
+            }
+            boolean inLoop = loop.inLoop();
+            if (!outbound.offer(message, mayBlock && !inLoop)) {
+                return false;
+            }
+            // Avec compression, même depuis la boucle, l'écriture attend la fin du tour : tout ce qui
+            // est envoyé pendant ce tour (historique, liste des clients...) forme un seul envoi
+            if (inLoop && compressor == null) {
+                flush();
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                });
+            }
+            return true;
+        }
+
+        private void flush() {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            try {
+                while (true) {
+                    if (pendingWrite == null) {
+                        EncodedLine message = outbound.poll();
+                        if (message == null) {
+                            break;
+                        }
+                        pendingWrite = compressor != null ? compressBatch(message) : message.buffer(binary);
+                    }
+                    server.metrics().bytesOut.add(channel.write(pendingWrite));
+                    if (pendingWrite.hasRemaining()) {
+                        // Fenêtre TCP pleine : on attend que le canal redevienne inscriptible
+                        updateInterest();
+                        return;
+                    }
+                    pendingWrite = null;
+                }
+                updateInterest();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Le message et tous ceux déjà en attente forment un seul envoi (compressé au-delà du seuil)
+        private ByteBuffer compressBatch(EncodedLine first) throws IOException {
+            first.writeTo(compressor.pending(), true);
+            EncodedLine message;
+            while ((message = outbound.poll()) != null) {
+                message.writeTo(compressor.pending(), true);
+            }
+            return ByteBuffer.wrap(compressor.drain());
+        }
+
+        // Lecture suspendue pendant l'authentification ou la limitation de débit ;
+        // écriture tant qu'un envoi est partiel
+        private void updateInterest() {
+            if (key != null && key.isValid()) {
+                key.interestOps((decoder.isPaused() ? 0 : SelectionKey.OP_READ)
+                        | (pendingWrite != null ? SelectionKey.OP_WRITE : 0));
+            }
+        }
+
+        private void onReadable() {
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                server.log("Erreur client " + clientNumber + " : " + e.getMessage());
+                close();
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+            server.metrics().bytesIn.add(read);
+
+            readBuffer.flip();
+            decode();
+        }
+
+        // Décode le tampon de lecture ; si le décodage est suspendu (authentification en
+        // cours), les octets restants y sont gardés et la lecture du canal est arrêtée
+        private void decode() {
+            try {
+                if (!decoder.feed(readBuffer, this)) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                server.log("Client " + clientNumber + " : " + e.getMessage() + ", deconnexion");
+                close();
+                return;
+            }
+            if (decoder.isPaused()) {
+                readBuffer.compact();
+            } else {
+                readBuffer.clear();
+            }
+            updateInterest();
+        }
+
+        @Override
+        public boolean onLine(String line) {
+            if (!pseudoReceived) {
+                if (line.equals(FrameCodec.NEGOTIATION) || line.equals(FrameCodec.NEGOTIATION_DEFLATE)) {
+                    FrameCodec.Compressor negotiated = server.newCompressor(line);
+                    // L'accusé reste en texte ; tout ce qui le suit dans la file part en trames
+                    // (compressées si négocié), l'accusé étant écrit dès cet appel dans la boucle
+                    send(negotiated != null ? ChatServer.FRAMING_ACK_DEFLATE : ChatServer.FRAMING_ACK);
+                    compressor = negotiated;
+                    binary = true;
+                    decoder.switchToBinary();
+                    return true;
+                }
+                return identify(line);
+            }
+            long delay = server.admissionDelay(clientNumber, line, false);
+            if (delay != 0) {
+                return throttle(delay, () -> server.admissionDelay(clientNumber, line, true),
+                        () -> server.handleClientLine(clientNumber, line));
+            }
+            return server.handleClientLine(clientNumber, line);
+        }
+
+        @Override
+        public boolean onFrame(int type, byte[] payload, int offset, int length) {
+            if (!pseudoReceived) {
+                if (type != FrameCodec.HELLO) {
+                    server.log("Client " + clientNumber + " : trame " + type + " recue avant le pseudo, deconnexion");
+                    return false;
+                }
+                return identify(FrameCodec.text(payload, offset, length));
+            }
+            long delay = server.admissionDelay(clientNumber, type, payload, offset, length, false);
+            if (delay != 0) {
+                // Le tampon du décodeur est réutilisé : la trame en attente en garde une copie
+                byte[] copy = Arrays.copyOfRange(payload, offset, offset + length);
+                return throttle(delay, () -> server.admissionDelay(clientNumber, type, copy, 0, copy.length, true),
+                        () -> server.handleClientFrame(clientNumber, type, copy, 0, copy.length));
+            }
+            return server.handleClientFrame(clientNumber, type, payload, offset, length);
+        }
+
+        // Client au-delà de sa limite : le décodage et la lecture du canal sont suspendus jusqu'au
+        // prochain jeton (les octets suivants attendent dans le tampon, puis dans le noyau : le
+        // client ralentit de lui-même). La ligne est alors présentée de nouveau, ou abandonnée
+        // si elle a été refusée (délai négatif).
+        private boolean throttle(long delay, LongSupplier admission, BooleanSupplier handler) {
+            decoder.pause();
+            resumeAfter(delay, admission, handler);
+            return true;
+        }
+
+        private void resumeAfter(long delay, LongSupplier admission, BooleanSupplier handler) {
+            loop.schedule(() -> {
+                if (closed.get()) {
+                    return;
+                }
+                if (delay > 0) {
+                    // Nouvel essai : la limite a pu être abaissée (ou la politique changée) entre-temps
+                    long retry = admission.getAsLong();
+                    if (retry != 0) {
+                        resumeAfter(retry, admission, handler);
+                        return;
+                    }
+                    if (!handler.getAsBoolean()) {
+                        close();
+                        return;
+                    }
+                }
+                decoder.resume();
+                readBuffer.flip();
+                decode();
+            }, Math.abs(delay));
+        }
+
+        private boolean identify(String identity) {
+            pseudoReceived = true;
+            CompletableFuture<AuthService.Result> pending = server.identify(identity);
+            if (pending.isDone()) {
+                return onIdentified(pending.join());
+            }
+            // Mot de passe vérifié sur le pool d'authentification : la boucle ne l'attend pas,
+            // les données suivantes du client restent en attente jusqu'au résultat
+            decoder.pause();
+            pending.thenAccept(result -> loop.execute(() -> {
+                if (closed.get()) {
+                    return;
+                }
+                decoder.resume();
+                if (onIdentified(result)) {
+                    readBuffer.flip();
+                    decode();
+                } else {
+                    close();
+                }
+            }));
+            return true;
+        }
+
+        private boolean onIdentified(AuthService.Result result) {
+            if (!result.isAccepted()) {
+                // Écrit tout de suite (même en compression différée), avant la fermeture qui suit
+                send(server.authFailure(clientNumber, result));
+                flush();
+                return false;
+            }
+            server.registerClient(clientNumber, new ChatServer.ClientInfo(this, result));
+            return true;
+        }
+
+        // Fermeture demandée par un émetteur (ex. file d'envoi saturée) : toujours différée,
+        // pour ne pas retirer le client au milieu d'une diffusion en cours
+        void closeAsync() {
+            loop.execute(this::close);
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            outbound.close();
+            if (key != null) {
+                key.cancel();
+            }
+            if (compressor != null) {
+                compressor.end();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Fermeture best-effort
+            }
+            if (pseudoReceived) {
+                server.unregisterClient(clientNumber);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// File d'envoi bornée d'un client. Les threads émetteurs y déposent les messages,
+// un rédacteur dédié (thread ou boucle NIO) les vide vers le socket.
+// Un client lent ne bloque ainsi plus les diffusions des autres.
+public class OutboundQueue {
+
+    // Comportement lorsque la file est pleine
+    enum OverflowPolicy {
+        DROP_OLDEST, // on jette le message le plus ancien
+        DISCONNECT,  // on déconnecte le client
+        BLOCK;       // l'émetteur attend, au plus blockTimeoutMillis, puis on déconnecte
+
+        static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final ArrayDeque<EncodedLine> items = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed = false;
+    private long dropped = 0;
+
+    OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    // Dépose un message ; renvoie false si le client doit être déconnecté.
+    // mayBlock = false interdit l'attente (appel depuis le thread qui vide la file)
+    boolean offer(EncodedLine message, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (items.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        items.pollFirst();
+                        dropped++;
+                        break;
+                    case DISCONNECT:
+                        return false;
+                    case BLOCK:
+                        if (!mayBlock) {
+                            return false;
+                        }
+                        long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                        while (items.size() >= capacity && !closed) {
+                            if (nanos <= 0) {
+                                return false;
+                            }
+                            nanos = notFull.awaitNanos(nanos);
+                        }
+                        if (closed) {
+                            return true;
+                        }
+                        break;
+                }
+            }
+            items.addLast(message);
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Attend le prochain message ; renvoie null une fois la file fermée
+    EncodedLine take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Prochain message sans attendre, ou null
+    EncodedLine poll() {
+        lock.lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            EncodedLine message = items.pollFirst();
+            if (message != null) {
+                notFull.signal();
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ferme la file : les messages en attente sont abandonnés et le rédacteur s'arrête
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            items.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int depth() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
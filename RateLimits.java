@@ -0,0 +1,223 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Limites de débit par client (seaux à jetons), une par catégorie de requête : messages
+// publics, messages privés et commandes de liste. Chaque ligne admise coûte un jeton au seau
+// du client ; le seau se remplit au rythme fixé, jusqu'à la rafale autorisée. Un client à sec
+// voit sa lecture suspendue jusqu'au prochain jeton : sa ligne attend (DEFER) ou est refusée
+// avec un avis (REJECT). Le coût de diffusion reste ainsi borné à débit x destinataires.
+// Partagées par tous les clients et modifiables à chaud (JMX socketgui:type=RateLimits,
+// commande /limit des administrateurs) : la nouvelle limite vaut dès la ligne suivante.
+final class RateLimits implements RateLimitsMBean {
+
+    enum Kind {
+        MESSAGE("messages"), // message public (ligne, trame CHAT) ou /post d'une conférence
+        PRIVATE("prives"),   // @pseudo ou trame PRIVATE
+        LIST("list");        // /list, /queues : parcours de tous les clients (pas /presence,
+                             // resynchronisation automatique du SDK, jamais limitée)
+
+        final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        static Kind parse(String value) {
+            for (Kind kind : values()) {
+                if (kind.label.equalsIgnoreCase(value.trim())) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("Categorie inconnue : " + value + " (messages, prives ou list)");
+        }
+    }
+
+    enum Policy {
+        DEFER,  // la ligne attend son jeton (lecture suspendue jusque-là)
+        REJECT; // la ligne est refusée avec un avis, la lecture reprend au jeton suivant
+
+        static Policy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Politique inconnue : " + value + " (defer ou reject)");
+            }
+        }
+    }
+
+    // Débit (jetons par seconde, 0 : illimité) et rafale (contenance du seau) ; immuable
+    static final class Limit {
+        final double perSecond;
+        final int burst;
+
+        Limit(double perSecond, int burst) {
+            if (perSecond < 0 || burst < 1) {
+                throw new IllegalArgumentException("Limite invalide : " + perSecond + "/s, rafale " + burst);
+            }
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        // <par seconde>[:<rafale>] ; sans rafale, une seconde de débit (au moins 1)
+        static Limit parse(String value) {
+            int colon = value.indexOf(':');
+            double perSecond = Double.parseDouble(colon < 0 ? value : value.substring(0, colon));
+            int burst = colon < 0 ? (int) Math.max(1, Math.ceil(perSecond)) : Integer.parseInt(value.substring(colon + 1));
+            return new Limit(perSecond, burst);
+        }
+
+        @Override
+        public String toString() {
+            return perSecond == 0 ? "illimite" : String.format(Locale.ROOT, "%.1f/s rafale %d", perSecond, burst);
+        }
+    }
+
+    // Lues à chaque ligne reçue, sans verrou ; écritures rares (administration), sérialisées
+    private final AtomicReferenceArray<Limit> limits = new AtomicReferenceArray<>(Kind.values().length);
+    private volatile Policy policy;
+
+    RateLimits(ServerConfig config) {
+        limits.set(Kind.MESSAGE.ordinal(), config.messageLimit);
+        limits.set(Kind.PRIVATE.ordinal(), config.privateLimit);
+        limits.set(Kind.LIST.ordinal(), config.listLimit);
+        this.policy = config.ratePolicy;
+    }
+
+    Limit get(Kind kind) {
+        return limits.get(kind.ordinal());
+    }
+
+    synchronized void set(Kind kind, Limit limit) {
+        limits.set(kind.ordinal(), limit);
+    }
+
+    // Débit ou rafale seul (attributs JMX), l'autre valeur étant conservée
+    private synchronized void update(Kind kind, double perSecond, int burst) {
+        Limit current = get(kind);
+        set(kind, new Limit(Double.isNaN(perSecond) ? current.perSecond : perSecond, burst < 0 ? current.burst : burst));
+    }
+
+    Policy policy() {
+        return policy;
+    }
+
+    void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    String describe() {
+        StringBuilder text = new StringBuilder("Limites de debit:");
+        for (Kind kind : Kind.values()) {
+            text.append(' ').append(kind.label).append('=').append(get(kind)).append(',');
+        }
+        return text.append(" politique=").append(policy.name().toLowerCase(Locale.ROOT)).toString();
+    }
+
+    void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName(ServerMetrics.JMX_DOMAIN + ":type=RateLimits"));
+    }
+
+    // Seaux d'un client, un par catégorie. Utilisés par un seul thread à la fois : le lecteur
+    // du client (modes bloquant et virtuel) ou sa boucle NIO.
+    static final class Budget {
+        private final double[] tokens = new double[Kind.values().length];
+        private final long[] lastRefill = new long[Kind.values().length];
+        private final boolean[] started = new boolean[Kind.values().length];
+
+        // Prend un jeton et renvoie 0, ou renvoie le délai (ns) avant le prochain jeton
+        long acquire(Kind kind, Limit limit, long now) {
+            if (limit.perSecond == 0) {
+                return 0;
+            }
+            int index = kind.ordinal();
+            if (!started[index]) {
+                // Seau plein à la première requête
+                started[index] = true;
+                tokens[index] = limit.burst;
+            } else {
+                double refill = (now - lastRefill[index]) * limit.perSecond / 1e9;
+                tokens[index] = Math.min(limit.burst, tokens[index] + refill);
+            }
+            lastRefill[index] = now;
+            if (tokens[index] >= 1) {
+                tokens[index] -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens[index]) * 1e9 / limit.perSecond);
+        }
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return get(Kind.MESSAGE).perSecond;
+    }
+
+    @Override
+    public void setMessagesPerSecond(double perSecond) {
+        update(Kind.MESSAGE, perSecond, -1);
+    }
+
+    @Override
+    public int getMessagesBurst() {
+        return get(Kind.MESSAGE).burst;
+    }
+
+    @Override
+    public void setMessagesBurst(int burst) {
+        update(Kind.MESSAGE, Double.NaN, burst);
+    }
+
+    @Override
+    public double getPrivatePerSecond() {
+        return get(Kind.PRIVATE).perSecond;
+    }
+
+    @Override
+    public void setPrivatePerSecond(double perSecond) {
+        update(Kind.PRIVATE, perSecond, -1);
+    }
+
+    @Override
+    public int getPrivateBurst() {
+        return get(Kind.PRIVATE).burst;
+    }
+
+    @Override
+    public void setPrivateBurst(int burst) {
+        update(Kind.PRIVATE, Double.NaN, burst);
+    }
+
+    @Override
+    public double getListPerSecond() {
+        return get(Kind.LIST).perSecond;
+    }
+
+    @Override
+    public void setListPerSecond(double perSecond) {
+        update(Kind.LIST, perSecond, -1);
+    }
+
+    @Override
+    public int getListBurst() {
+        return get(Kind.LIST).burst;
+    }
+
+    @Override
+    public void setListBurst(int burst) {
+        update(Kind.LIST, Double.NaN, burst);
+    }
+
+    @Override
+    public String getPolicy() {
+        return policy.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void setPolicy(String policy) {
+        setPolicy(Policy.parse(policy));
+    }
+}
@@ -0,0 +1,32 @@
+// Vue JMX des limites de débit par client, modifiables à chaud (0 par seconde : illimité)
+public interface RateLimitsMBean {
+
+    double getMessagesPerSecond();
+
+    void setMessagesPerSecond(double perSecond);
+
+    int getMessagesBurst();
+
+    void setMessagesBurst(int burst);
+
+    double getPrivatePerSecond();
+
+    void setPrivatePerSecond(double perSecond);
+
+    int getPrivateBurst();
+
+    void setPrivateBurst(int burst);
+
+    double getListPerSecond();
+
+    void setListPerSecond(double perSecond);
+
+    int getListBurst();
+
+    void setListBurst(int burst);
+
+    // defer ou reject
+    String getPolicy();
+
+    void setPolicy(String policy);
+}
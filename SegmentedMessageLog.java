@@ -0,0 +1,336 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Journal des messages découpé en segments de taille fixe, projetés en mémoire (mmap).
+// Chaque message reçoit une séquence croissante. Un index creux par segment (une entrée
+// toutes les INDEX_INTERVAL séquences : position + horodatage), lui aussi projeté en mémoire,
+// permet de retrouver une séquence ou une date sans parcourir tout l'historique.
+// Le tas ne contient que quelques champs par segment : sa taille ne dépend pas de l'historique.
+//
+// Format d'un enregistrement : [int longueur][long séquence][long horodatage]
+// puis expéditeur, contenu, type, destinataire en [int longueur (-1 = null)][octets UTF-8].
+// La longueur est écrite en dernier : une longueur nulle marque la fin du segment.
+public class SegmentedMessageLog implements Closeable {
+
+    private static final int INDEX_INTERVAL = 64;
+    private static final int INDEX_ENTRY_BYTES = 12; // int position + long horodatage
+    private static final int RECORD_FIXED_BYTES = 8 + 8 + 4 * 4;
+    private static final String DATA_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final class Segment {
+        final long baseSequence;
+        final MappedByteBuffer data;
+        final MappedByteBuffer index;
+        int writePosition;
+        volatile long endSequence; // exclusive
+        volatile long lastTimestamp;
+
+        Segment(long baseSequence) throws IOException {
+            this.baseSequence = baseSequence;
+            this.data = map(segmentFile(baseSequence, DATA_SUFFIX), segmentBytes);
+            this.index = map(segmentFile(baseSequence, INDEX_SUFFIX), indexBytes());
+            this.endSequence = baseSequence;
+        }
+
+        // Position de l'enregistrement indexé juste avant (ou à) la séquence donnée
+        int indexedPosition(long sequence) {
+            int entry = (int) ((sequence - baseSequence) / INDEX_INTERVAL);
+            return index.getInt(entry * INDEX_ENTRY_BYTES);
+        }
+
+        long indexedTimestamp(int entry) {
+            return index.getLong(entry * INDEX_ENTRY_BYTES + 4);
+        }
+
+        int indexEntries() {
+            return (int) ((endSequence - baseSequence + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Première séquence non encore publiée : les lecteurs ne lisent jamais au-delà
+    private volatile long nextSequence = 0;
+    private volatile boolean dirty = false;
+
+    SegmentedMessageLog(String directoryName, int segmentBytes) throws IOException {
+        this.directory = Paths.get(directoryName);
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    private int indexBytes() {
+        return (segmentBytes / (4 + RECORD_FIXED_BYTES) / INDEX_INTERVAL + 1) * INDEX_ENTRY_BYTES;
+    }
+
+    private Path segmentFile(long baseSequence, String suffix) {
+        return directory.resolve(String.format("%020d", baseSequence) + suffix);
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // Réouverture : chaque segment est projeté, sa fin retrouvée à partir de la dernière
+    // entrée d'index (au plus INDEX_INTERVAL enregistrements à parcourir)
+    private void open() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DATA_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length())));
+            }
+        }
+        Collections.sort(bases);
+        for (long base : bases) {
+            Segment segment = new Segment(base);
+            int entry = 0;
+            while ((entry + 1) * INDEX_ENTRY_BYTES <= segment.index.capacity()
+                    && segment.indexedTimestamp(entry) != 0) {
+                entry++;
+            }
+            long sequence = base;
+            int position = 0;
+            if (entry > 0) {
+                sequence = base + (long) (entry - 1) * INDEX_INTERVAL;
+                position = segment.index.getInt((entry - 1) * INDEX_ENTRY_BYTES);
+            }
+            ByteBuffer view = segment.data.duplicate();
+            while (position + 4 <= segmentBytes) {
+                int length = view.getInt(position);
+                if (length <= 0 || position + 4 + length > segmentBytes) {
+                    break;
+                }
+                segment.lastTimestamp = view.getLong(position + 4 + 8);
+                position += 4 + length;
+                sequence++;
+            }
+            segment.writePosition = position;
+            segment.endSequence = sequence;
+            segments.add(segment);
+        }
+        if (!segments.isEmpty()) {
+            nextSequence = segments.get(segments.size() - 1).endSequence;
+        }
+    }
+
+    long firstSequence() {
+        return segments.isEmpty() ? 0 : segments.get(0).baseSequence;
+    }
+
+    long nextSequence() {
+        return nextSequence;
+    }
+
+    boolean isEmpty() {
+        return nextSequence == firstSequence();
+    }
+
+    // Ajoute un message et renvoie sa séquence. Simple copie mémoire : la synchronisation
+    // disque est faite à part (force), par lots
+    long append(String sender, String content, String type, String recipient, long timestamp) throws IOException {
+        byte[][] fields = { bytes(sender), bytes(content), bytes(type), bytes(recipient) };
+        int length = RECORD_FIXED_BYTES;
+        for (byte[] field : fields) {
+            length += field == null ? 0 : field.length;
+        }
+        if (4 + length + 4 > segmentBytes) {
+            throw new IOException("Message trop volumineux pour un segment (" + length + " octets)");
+        }
+
+        appendLock.lock();
+        try {
+            Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (active == null || active.writePosition + 4 + length + 4 > segmentBytes) {
+                if (active != null) {
+                    active.data.force();
+                    active.index.force();
+                }
+                active = new Segment(nextSequence);
+                segments.add(active);
+            }
+            long sequence = nextSequence;
+            int position = active.writePosition;
+            ByteBuffer writer = active.data.duplicate();
+            writer.position(position + 4);
+            writer.putLong(sequence);
+            writer.putLong(timestamp);
+            for (byte[] field : fields) {
+                if (field == null) {
+                    writer.putInt(-1);
+                } else {
+                    writer.putInt(field.length);
+                    writer.put(field);
+                }
+            }
+            // La longueur en dernier : l'enregistrement n'est visible qu'une fois complet
+            active.data.putInt(position, length);
+
+            long offset = sequence - active.baseSequence;
+            if (offset % INDEX_INTERVAL == 0) {
+                int entry = (int) (offset / INDEX_INTERVAL) * INDEX_ENTRY_BYTES;
+                active.index.putInt(entry, position);
+                active.index.putLong(entry + 4, Math.max(1, timestamp));
+            }
+            active.writePosition = position + 4 + length;
+            active.lastTimestamp = timestamp;
+            active.endSequence = sequence + 1;
+            dirty = true;
+            nextSequence = sequence + 1; // publication pour les lecteurs
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Messages de séquence dans [fromSequence, toSequence), au plus limit
+    List<UserManager.Message> readRange(long fromSequence, long toSequence, int limit) {
+        List<UserManager.Message> result = new ArrayList<>();
+        long end = Math.min(toSequence, nextSequence);
+        long sequence = Math.max(fromSequence, firstSequence());
+        int segmentIndex = findSegment(sequence);
+        while (segmentIndex >= 0 && segmentIndex < segments.size() && sequence < end && result.size() < limit) {
+            Segment segment = segments.get(segmentIndex);
+            ByteBuffer view = segment.data.duplicate();
+            long current = segment.baseSequence + (sequence - segment.baseSequence) / INDEX_INTERVAL * INDEX_INTERVAL;
+            int position = segment.indexedPosition(sequence);
+            long segmentEnd = Math.min(end, segment.endSequence);
+            while (current < segmentEnd && result.size() < limit) {
+                int length = view.getInt(position);
+                if (current >= sequence) {
+                    result.add(readRecord(view, position));
+                }
+                position += 4 + length;
+                current++;
+            }
+            sequence = current;
+            segmentIndex++;
+        }
+        return result;
+    }
+
+    // Messages horodatés dans [fromMillis, toMillis], au plus limit, du plus ancien au plus récent
+    List<UserManager.Message> readBetween(long fromMillis, long toMillis, int limit) {
+        List<UserManager.Message> result = new ArrayList<>();
+        long end = nextSequence;
+        for (Segment segment : segments) {
+            if (segment.endSequence == segment.baseSequence || segment.lastTimestamp < fromMillis) {
+                continue;
+            }
+            // Dernière entrée d'index strictement antérieure à fromMillis (recherche dichotomique)
+            int low = 0;
+            int high = segment.indexEntries() - 1;
+            int start = 0;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (segment.indexedTimestamp(middle) < fromMillis) {
+                    start = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            ByteBuffer view = segment.data.duplicate();
+            long current = segment.baseSequence + (long) start * INDEX_INTERVAL;
+            int position = segment.index.getInt(start * INDEX_ENTRY_BYTES);
+            long segmentEnd = Math.min(end, segment.endSequence);
+            while (current < segmentEnd) {
+                int length = view.getInt(position);
+                long timestamp = view.getLong(position + 4 + 8);
+                if (timestamp > toMillis) {
+                    return result;
+                }
+                if (timestamp >= fromMillis) {
+                    result.add(readRecord(view, position));
+                    if (result.size() >= limit) {
+                        return result;
+                    }
+                }
+                position += 4 + length;
+                current++;
+            }
+        }
+        return result;
+    }
+
+    // Synchronise sur disque ce qui a été écrit depuis le dernier appel
+    void force() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        if (!segments.isEmpty()) {
+            Segment active = segments.get(segments.size() - 1);
+            active.data.force();
+            active.index.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private int findSegment(long sequence) {
+        int low = 0;
+        int high = segments.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (segments.get(middle).baseSequence <= sequence) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private static UserManager.Message readRecord(ByteBuffer view, int position) {
+        view.position(position + 4);
+        long sequence = view.getLong();
+        long timestamp = view.getLong();
+        String sender = readString(view);
+        String content = readString(view);
+        String type = readString(view);
+        String recipient = readString(view);
+        return new UserManager.Message(sequence, sender, content, type, recipient, new Date(timestamp));
+    }
+
+    private static String readString(ByteBuffer view) {
+        int length = view.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
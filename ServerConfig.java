@@ -0,0 +1,206 @@
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Paramètres de démarrage du serveur, lus depuis la ligne de commande (--cle=valeur,
+// ou --cle seul pour une option booléenne)
+public class ServerConfig {
+
+    ChatServer.ServerMode mode = ChatServer.ServerMode.BLOCKING;
+    // Port d'écoute des clients
+    int port = 12345;
+    // Sans fenêtre Swing (serveur distant) ; forcé si aucun affichage n'est disponible
+    boolean headless = false;
+    int eventLoops = Runtime.getRuntime().availableProcessors();
+
+    // Nombre de messages conservés dans l'historique
+    int historySize = 100;
+
+    // Files d'envoi par client. BLOCK est refusé en mode NIO : une boucle d'événements qui
+    // diffuse vers un client d'une autre boucle attendrait jusqu'à blockTimeoutMillis et
+    // figerait tous ses propres clients
+    int queueCapacity = 1024;
+    OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+    long blockTimeoutMillis = 2000;
+
+    // Journal applicatif : fichier tournant alimenté par un tampon borné
+    String logFile = "server.log";
+    int logBufferSize = 8192;
+    long logMaxBytes = 10L * 1024 * 1024;
+    int logMaxFiles = 5;
+
+    // Métriques : MBeans JMX (domaine socketgui) et commande /stats réservée à ces pseudos
+    boolean jmx = true;
+    Set<String> admins = new HashSet<>();
+
+    // Comptes (users.txt, WAL, journal des messages) et authentification
+    String dataDir = ".";
+    // Refuser les sessions anonymes (pseudo seul, sans AUTH/REGISTER/RESUME)
+    boolean requireAuth = false;
+    // Pool de hachage des mots de passe : threads et tâches en attente au-delà desquelles
+    // les connexions sont refusées
+    int authThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    int authQueue = 256;
+    // Délai de reprise d'une session, compté à partir de la perte de sa connexion
+    long sessionTtlSeconds = 600;
+
+    // Compression serveur -> client proposée aux clients binaires (FRAMING:BINARY+DEFLATE) ;
+    // seuls les envois groupés d'au moins compressionThreshold octets sont compressés
+    boolean compression = true;
+    int compressionThreshold = 256;
+
+    // Limites de débit par client (voir RateLimits) : <par seconde>:<rafale>, 0 pour illimité ;
+    // modifiables ensuite en JMX ou par /limit
+    RateLimits.Limit messageLimit = new RateLimits.Limit(10, 20);
+    RateLimits.Limit privateLimit = new RateLimits.Limit(10, 20);
+    RateLimits.Limit listLimit = new RateLimits.Limit(1, 5);
+    RateLimits.Policy ratePolicy = RateLimits.Policy.DEFER;
+
+    // Grappe (voir ClusterBus) : adresse du bus de chaque nœud, même liste dans le même ordre
+    // sur tous les nœuds, et rang de ce nœud dans la liste ; liste vide : serveur seul
+    List<InetSocketAddress> clusterNodes = new ArrayList<>();
+    int nodeIndex = 0;
+
+    static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Argument invalide : " + arg + " (attendu --cle=valeur)");
+            }
+            int eq = arg.indexOf('=');
+            String key = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            switch (key) {
+                case "mode":
+                    config.mode = ChatServer.ServerMode.valueOf(value.toUpperCase());
+                    break;
+                case "port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "headless":
+                    config.headless = Boolean.parseBoolean(value);
+                    break;
+                case "loops":
+                    config.eventLoops = Integer.parseInt(value);
+                    break;
+                case "history-size":
+                    config.historySize = Integer.parseInt(value);
+                    break;
+                case "queue-capacity":
+                    config.queueCapacity = Integer.parseInt(value);
+                    break;
+                case "overflow":
+                    config.overflowPolicy = OutboundQueue.OverflowPolicy.parse(value);
+                    break;
+                case "block-timeout-ms":
+                    config.blockTimeoutMillis = Long.parseLong(value);
+                    break;
+                case "log-file":
+                    config.logFile = value;
+                    break;
+                case "log-buffer":
+                    config.logBufferSize = Integer.parseInt(value);
+                    break;
+                case "log-max-bytes":
+                    config.logMaxBytes = Long.parseLong(value);
+                    break;
+                case "log-max-files":
+                    config.logMaxFiles = Integer.parseInt(value);
+                    break;
+                case "jmx":
+                    config.jmx = Boolean.parseBoolean(value);
+                    break;
+                case "admins":
+                    for (String admin : value.split(",")) {
+                        if (!admin.trim().isEmpty()) {
+                            config.admins.add(admin.trim().toLowerCase(Locale.ROOT));
+                        }
+                    }
+                    break;
+                case "data-dir":
+                    config.dataDir = value;
+                    break;
+                case "require-auth":
+                    config.requireAuth = Boolean.parseBoolean(value);
+                    break;
+                case "auth-threads":
+                    config.authThreads = Integer.parseInt(value);
+                    break;
+                case "auth-queue":
+                    config.authQueue = Integer.parseInt(value);
+                    break;
+                case "session-ttl-s":
+                    config.sessionTtlSeconds = Long.parseLong(value);
+                    break;
+                case "compression":
+                    config.compression = Boolean.parseBoolean(value);
+                    break;
+                case "compression-threshold":
+                    config.compressionThreshold = Integer.parseInt(value);
+                    break;
+                case "rate-messages":
+                    config.messageLimit = RateLimits.Limit.parse(value);
+                    break;
+                case "rate-private":
+                    config.privateLimit = RateLimits.Limit.parse(value);
+                    break;
+                case "rate-list":
+                    config.listLimit = RateLimits.Limit.parse(value);
+                    break;
+                case "rate-policy":
+                    config.ratePolicy = RateLimits.Policy.parse(value);
+                    break;
+                case "cluster":
+                    config.clusterNodes.clear();
+                    for (String node : value.split(",")) {
+                        if (!node.trim().isEmpty()) {
+                            config.clusterNodes.add(parseAddress(node.trim()));
+                        }
+                    }
+                    break;
+                case "node":
+                    config.nodeIndex = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : --" + key);
+            }
+        }
+        if (config.mode == ChatServer.ServerMode.NIO && config.overflowPolicy == OutboundQueue.OverflowPolicy.BLOCK) {
+            throw new IllegalArgumentException("--overflow=block est incompatible avec --mode=nio"
+                    + " (une boucle d'evenements ne doit jamais attendre) : utilisez drop-oldest ou disconnect");
+        }
+        if (config.isClustered() && (config.nodeIndex < 0 || config.nodeIndex >= config.clusterNodes.size())) {
+            throw new IllegalArgumentException("--node=" + config.nodeIndex + " hors de la liste --cluster ("
+                    + config.clusterNodes.size() + " noeuds)");
+        }
+        return config;
+    }
+
+    // hôte:port (le dernier ':' sépare le port, pour tolérer une adresse IPv6)
+    private static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Adresse de noeud invalide : " + address + " (attendu hote:port)");
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    boolean isClustered() {
+        return !clusterNodes.isEmpty();
+    }
+
+    int clusterSize() {
+        return isClustered() ? clusterNodes.size() : 1;
+    }
+
+    boolean isAdmin(String pseudo) {
+        return pseudo != null && admins.contains(pseudo.toLowerCase(Locale.ROOT));
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(queueCapacity, overflowPolicy, blockTimeoutMillis);
+    }
+}
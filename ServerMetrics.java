@@ -0,0 +1,179 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Métriques du serveur : compteurs (LongAdder), histogrammes de latence et jauges lues
+// à la demande (clients, historique, files d'envoi). L'enregistrement sur le chemin
+// critique ne fait que des additions atomiques, sans allocation ni verrou.
+// Consultables en JMX (domaine socketgui) et par la commande /stats (administrateurs).
+final class ServerMetrics implements ServerMetricsMBean {
+
+    static final String JMX_DOMAIN = "socketgui";
+
+    // Réception d'un message public -> dépôt dans la file de chaque destinataire
+    final LatencyHistogram fanOut = new LatencyHistogram();
+    // Message privé @pseudo (recherche du destinataire + envoi + confirmation)
+    final LatencyHistogram privateMessage = new LatencyHistogram();
+    final LatencyHistogram listCommand = new LatencyHistogram();
+    // Autres commandes (/queues, /presence, /stats...)
+    final LatencyHistogram otherCommand = new LatencyHistogram();
+    // Rejeu de l'historique à l'arrivée d'un client
+    final LatencyHistogram historyReplay = new LatencyHistogram();
+    // Écriture d'un lot du journal applicatif
+    final LatencyHistogram logFlush = new LatencyHistogram();
+    // Synchronisations disque de UserManager (messages, WAL, instantanés), s'il est rattaché
+    final LatencyHistogram persistFlush = new LatencyHistogram();
+    // Vérification d'un mot de passe ou inscription (attente dans le pool comprise)
+    final LatencyHistogram authentication = new LatencyHistogram();
+
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder connectionsAccepted = new LongAdder();
+    final LongAdder queueOverflows = new LongAdder();
+    // Envois compressés (FRAMING:BINARY+DEFLATE) : octets des trames avant et après compression
+    final LongAdder compressionInput = new LongAdder();
+    final LongAdder compressionOutput = new LongAdder();
+    // Lignes de clients au-delà de leur limite de débit : mises en attente, refusées
+    final LongAdder rateDeferred = new LongAdder();
+    final LongAdder rateRejected = new LongAdder();
+    // Grappe : messages confiés au bus vers les autres nœuds, et perdus (pair injoignable ou saturé)
+    final LongAdder clusterMessagesSent = new LongAdder();
+    final LongAdder clusterMessagesDropped = new LongAdder();
+
+    private final ChatServer server;
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+    ServerMetrics(ChatServer server) {
+        this.server = server;
+        latencies.put("diffusion", fanOut);
+        latencies.put("prive", privateMessage);
+        latencies.put("list", listCommand);
+        latencies.put("commandes", otherCommand);
+        latencies.put("historique", historyReplay);
+        latencies.put("journal", logFlush);
+        latencies.put("persistance", persistFlush);
+        latencies.put("authentification", authentication);
+    }
+
+    // socketgui:type=ServerMetrics et socketgui:type=Latency,name=<histogramme>
+    void registerMBeans() throws JMException {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        mbeans.registerMBean(this, new ObjectName(JMX_DOMAIN + ":type=ServerMetrics"));
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            mbeans.registerMBean(entry.getValue(), new ObjectName(JMX_DOMAIN + ":type=Latency,name=" + entry.getKey()));
+        }
+    }
+
+    // Texte de la commande /stats : une ligne de compteurs puis une ligne par histogramme
+    List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT,
+                "Statistiques: clients=%d (connexions %d), historique=%d/%d, files total=%d max=%d, "
+                        + "debordements=%d, octets recus=%d envoyes=%d, compression %d -> %d, "
+                        + "limites de debit attentes=%d refus=%d, grappe envoyes=%d perdus=%d, uptime=%ds",
+                getConnectedClients(), getConnectionsAccepted(), getHistorySize(), server.historyCapacity(),
+                getTotalQueueDepth(), getMaxQueueDepth(), getQueueOverflows(), getBytesIn(), getBytesOut(),
+                getBytesBeforeCompression(), getBytesAfterCompression(), getRateLimitDeferrals(),
+                getRateLimitRejections(), getClusterMessagesSent(),
+                getClusterMessagesDropped(), getUptimeSeconds()));
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            lines.add(String.format(Locale.ROOT,
+                    "Latence %s (us): n=%d moy=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                    entry.getKey(), histogram.getCount(), histogram.getMeanMicros(), histogram.getP50Micros(),
+                    histogram.getP90Micros(), histogram.getP99Micros(), histogram.getP999Micros(),
+                    histogram.getMaxMicros()));
+        }
+        return lines;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return server.clientCount();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public int getHistorySize() {
+        return server.historySize();
+    }
+
+    @Override
+    public long getTotalQueueDepth() {
+        return server.totalQueueDepth();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return server.maxQueueDepth();
+    }
+
+    @Override
+    public long getQueueOverflows() {
+        return queueOverflows.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getBytesBeforeCompression() {
+        return compressionInput.sum();
+    }
+
+    @Override
+    public long getBytesAfterCompression() {
+        return compressionOutput.sum();
+    }
+
+    @Override
+    public long getRateLimitDeferrals() {
+        return rateDeferred.sum();
+    }
+
+    @Override
+    public long getRateLimitRejections() {
+        return rateRejected.sum();
+    }
+
+    @Override
+    public long getClusterMessagesSent() {
+        return clusterMessagesSent.sum();
+    }
+
+    @Override
+    public long getClusterMessagesDropped() {
+        return clusterMessagesDropped.sum();
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return (System.currentTimeMillis() - startMillis) / 1000;
+    }
+
+    @Override
+    public void resetLatencies() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+    }
+}
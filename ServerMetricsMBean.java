@@ -0,0 +1,36 @@
+// Vue JMX des compteurs et jauges du serveur (les latences sont des MBeans à part)
+public interface ServerMetricsMBean {
+
+    int getConnectedClients();
+
+    long getConnectionsAccepted();
+
+    int getHistorySize();
+
+    long getTotalQueueDepth();
+
+    int getMaxQueueDepth();
+
+    long getQueueOverflows();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getBytesBeforeCompression();
+
+    long getBytesAfterCompression();
+
+    long getRateLimitDeferrals();
+
+    long getRateLimitRejections();
+
+    long getClusterMessagesSent();
+
+    long getClusterMessagesDropped();
+
+    long getUptimeSeconds();
+
+    // Remet à zéro les histogrammes de latence (pas les compteurs cumulés)
+    void resetLatencies();
+}
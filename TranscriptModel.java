@@ -0,0 +1,63 @@
+import java.util.Collection;
+import javax.swing.AbstractListModel;
+
+// Fil de discussion du client : anneau de taille fixe exposé comme modèle de JList.
+// Les lignes les plus anciennes sont écartées au-delà de la capacité ; la JList ne dessine
+// que les lignes visibles, le coût d'affichage ne dépend donc pas de la longueur du fil.
+// À manipuler uniquement sur l'EDT, comme tout modèle Swing.
+final class TranscriptModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] lines;
+    private int start = 0;
+    private int size = 0;
+
+    TranscriptModel(int capacity) {
+        this.lines = new String[Math.max(1, capacity)];
+    }
+
+    int capacity() {
+        return lines.length;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(start + index) % lines.length];
+    }
+
+    // Ajoute un lot de lignes : au plus une notification de retrait (tête écartée)
+    // et une notification d'ajout, quel que soit le nombre de lignes
+    void appendAll(Collection<String> batch) {
+        int count = batch.size();
+        if (count == 0) {
+            return;
+        }
+        int evicted = Math.min(size, Math.max(0, size + count - lines.length));
+        if (evicted > 0) {
+            for (int i = 0; i < evicted; i++) {
+                lines[(start + i) % lines.length] = null;
+            }
+            start = (start + evicted) % lines.length;
+            size -= evicted;
+            fireIntervalRemoved(this, 0, evicted - 1);
+        }
+        // Lot plus grand que l'anneau : seules les dernières lignes sont conservées
+        int skip = Math.max(0, count - lines.length);
+        int first = size;
+        for (String line : batch) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            lines[(start + size) % lines.length] = line;
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+    }
+}
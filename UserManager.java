@@ -1,24 +1,88 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class UserManager {
     private static final String USERS_FILE = "users.txt";
+    // Ancien journal texte, importé une fois dans le journal segmenté
     private static final String MESSAGES_FILE = "messages.txt";
-    private Map<String, User> users = new HashMap<>();
-    private List<Message> messages = new ArrayList<>();
+    private static final String MESSAGES_DIR = "messages";
+    // Journal d'écriture anticipée des utilisateurs : users.wal.<génération>
+    private static final String USERS_WAL_PREFIX = "users.wal.";
+    private Map<String, User> users = new ConcurrentHashMap<>();
+    // Noms des comptes en minuscules : un pseudo anonyme ne peut pas en usurper un, casse comprise
+    private final Set<String> registeredKeys = ConcurrentHashMap.newKeySet();
+    // Messages : segments projetés en mémoire avec index creux, rien n'est gardé sur le tas.
+    // Réglages : -Djournal.sync=none|batch (synchronisation disque toutes les
+    // journal.window.ms millisecondes), -Dmessages.segment.bytes=<taille d'un segment>
+    private SegmentedMessageLog messageLog;
+    private final boolean syncMessages =
+            AppendOnlyJournal.SyncPolicy.parse(System.getProperty("journal.sync", "none")) == AppendOnlyJournal.SyncPolicy.BATCH;
+    // Chaque inscription ajoute un petit enregistrement au WAL ; un instantané complet
+    // (users.txt) est écrit en arrière-plan puis les anciens WAL sont supprimés.
+    // Réglages : -Dusers.checkpoint.ms=<ms>, -Dusers.checkpoint.records=<enregistrements>
+    // La présence (isOnline, lastSeen) reste en mémoire et n'est jamais écrite.
+    private AppendOnlyJournal userWal;
+    private long walGeneration = 0;
+    private int walRecordsSinceCheckpoint = 0;
+    private final int checkpointRecords = Integer.getInteger("users.checkpoint.records", 1000);
+    // Protège l'ajout au WAL et la prise d'instantané (qui bascule le WAL)
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean(false);
+    private ScheduledExecutorService checkpointer;
+    // Durées des synchronisations disque (messages, WAL, instantanés), facultatif
+    private volatile LatencyHistogram flushTimes;
+    
+    // Répertoire des fichiers de données (courant par défaut)
+    private final Path dataDirectory;
     
     public UserManager() {
+        this(".");
+    }
+    
+    public UserManager(String dataDirectory) {
+        this.dataDirectory = Paths.get(dataDirectory);
         loadUsers();
-        loadMessages();
+        openMessages();
+        try {
+            userWal = new AppendOnlyJournal(walFile(walGeneration), AppendOnlyJournal.SyncPolicy.BATCH, 256, 2);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        long checkpointMillis = Long.getLong("users.checkpoint.ms", 60000);
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "users-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+        if (syncMessages && messageLog != null) {
+            long windowMillis = Math.max(1, Long.getLong("journal.window.ms", 5));
+            checkpointer.scheduleWithFixedDelay(this::forceMessages, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        }
     }
     
     public static class User {
         private String username;
         private String passwordHash;
-        private boolean isOnline;
-        private Date lastSeen;
+        // Présence volatile : jamais persistée
+        private volatile boolean isOnline;
+        private volatile Date lastSeen;
         
         public User(String username, String passwordHash) {
             this.username = username;
@@ -37,6 +101,7 @@ public class UserManager {
     }
     
     public static class Message {
+        private long sequence = -1; // attribuée par le journal
         private String sender;
         private String content;
         private Date timestamp;
@@ -50,7 +115,17 @@ public class UserManager {
             this.type = type;
         }
         
+        Message(long sequence, String sender, String content, String type, String recipient, Date timestamp) {
+            this.sequence = sequence;
+            this.sender = sender;
+            this.content = content;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.recipient = recipient;
+        }
+        
         // Getters
+        public long getSequence() { return sequence; }
         public String getSender() { return sender; }
         public String getContent() { return content; }
         public Date getTimestamp() { return timestamp; }
@@ -59,20 +134,27 @@ public class UserManager {
         public void setRecipient(String recipient) { this.recipient = recipient; }
     }
     
-    private String hashPassword(String password) {
+    // Un MessageDigest par thread (les threads du pool d'authentification le réutilisent) :
+    // pas de recherche de fournisseur ni d'allocation à chaque vérification
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(password.getBytes());
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
-            return password; // Fallback
+            throw new IllegalStateException("SHA-256 indisponible", e);
         }
+    });
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private String hashPassword(String password) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
     }
     
     public boolean registerUser(String username, String password) {
@@ -82,8 +164,29 @@ public class UserManager {
         
         String passwordHash = hashPassword(password);
         User user = new User(username, passwordHash);
-        users.put(username, user);
-        saveUsers();
+        boolean checkpointNeeded;
+        checkpointLock.lock();
+        try {
+            if (users.putIfAbsent(username, user) != null) {
+                return false; // Inscrit entre-temps par un autre thread
+            }
+            registeredKeys.add(username.toLowerCase(Locale.ROOT));
+            if (userWal != null) {
+                userWal.append("R|" + username + "|" + passwordHash);
+            }
+            checkpointNeeded = ++walRecordsSinceCheckpoint == checkpointRecords;
+        } finally {
+            checkpointLock.unlock();
+        }
+        // L'inscription n'est confirmée qu'une fois l'enregistrement écrit (écriture groupée)
+        if (userWal != null) {
+            long start = System.nanoTime();
+            userWal.flush().join();
+            recordFlush(start);
+        }
+        if (checkpointNeeded) {
+            checkpointer.execute(this::checkpoint);
+        }
         return true;
     }
     
@@ -92,7 +195,13 @@ public class UserManager {
         if (user == null) return false;
         
         String passwordHash = hashPassword(password);
-        return user.getPasswordHash().equals(passwordHash);
+        // Comparaison en temps constant
+        return MessageDigest.isEqual(user.getPasswordHash().getBytes(StandardCharsets.UTF_8),
+                passwordHash.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    public boolean isRegistered(String username) {
+        return registeredKeys.contains(username.toLowerCase(Locale.ROOT));
     }
     
     public void setUserOnline(String username, boolean online) {
@@ -100,7 +209,6 @@ public class UserManager {
         if (user != null) {
             user.setOnline(online);
             user.setLastSeen(new Date());
-            saveUsers();
         }
     }
     
@@ -115,53 +223,216 @@ public class UserManager {
     }
     
     public void saveMessage(String sender, String content, String type) {
-        Message message = new Message(sender, content, type);
-        messages.add(message);
-        saveMessages();
+        appendMessage(new Message(sender, content, type));
     }
     
     public void savePrivateMessage(String sender, String recipient, String content) {
         Message message = new Message(sender, content, "private");
         message.setRecipient(recipient);
-        messages.add(message);
-        saveMessages();
+        appendMessage(message);
+    }
+    
+    // Synchronise sur disque les messages déjà enregistrés
+    public void flushMessages() {
+        if (messageLog != null) {
+            forceMessages();
+        }
+    }
+    
+    private void forceMessages() {
+        long start = System.nanoTime();
+        messageLog.force();
+        recordFlush(start);
+    }
+    
+    // Rattache les durées de synchronisation aux métriques du serveur (ServerMetrics.persistFlush)
+    void recordFlushTimes(LatencyHistogram histogram) {
+        this.flushTimes = histogram;
+    }
+    
+    private void recordFlush(long start) {
+        LatencyHistogram histogram = flushTimes;
+        if (histogram != null) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+    
+    public void close() {
+        checkpointer.shutdown();
+        checkpoint();
+        if (userWal != null) {
+            try {
+                userWal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (messageLog != null) {
+            messageLog.close();
+        }
     }
     
     public List<Message> getRecentMessages(int count) {
-        int start = Math.max(0, messages.size() - count);
-        return messages.subList(start, messages.size());
+        if (messageLog == null) {
+            return new ArrayList<>();
+        }
+        long end = messageLog.nextSequence();
+        return messageLog.readRange(end - count, end, count);
+    }
+    
+    // Page d'historique : au plus "limit" messages de séquence strictement inférieure à beforeSequence
+    public List<Message> getMessagesBefore(long beforeSequence, int limit) {
+        if (messageLog == null) {
+            return new ArrayList<>();
+        }
+        return messageLog.readRange(beforeSequence - limit, beforeSequence, limit);
+    }
+    
+    // Messages envoyés entre deux dates (incluses), du plus ancien au plus récent
+    public List<Message> getMessagesBetween(Date from, Date to, int limit) {
+        if (messageLog == null) {
+            return new ArrayList<>();
+        }
+        return messageLog.readBetween(from.getTime(), to.getTime(), limit);
     }
     
+    // Chargement : dernier instantané, puis rejeu des WAL dans l'ordre des générations
     private void loadUsers() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USERS_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(dataFile(USERS_FILE).toFile()), StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
                 if (parts.length >= 2) {
-                    User user = new User(parts[0], parts[1]);
-                    if (parts.length >= 3) {
-                        user.setOnline(Boolean.parseBoolean(parts[2]));
-                    }
-                    users.put(parts[0], user);
+                    // Une éventuelle 3e colonne (ancien format : isOnline) est ignorée
+                    users.put(parts[0], new User(parts[0], parts[1]));
+                    registeredKeys.add(parts[0].toLowerCase(Locale.ROOT));
                 }
             }
         } catch (IOException e) {
             // Fichier n'existe pas encore, c'est normal
         }
+        
+        List<Long> generations = walGenerations();
+        for (long generation : generations) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(walFile(generation)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\\|");
+                    if (parts.length >= 3 && parts[0].equals("R")) {
+                        users.putIfAbsent(parts[1], new User(parts[1], parts[2]));
+                        registeredKeys.add(parts[1].toLowerCase(Locale.ROOT));
+                        walRecordsSinceCheckpoint++;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // Nouvelle génération à chaque démarrage ; les anciens WAL seront consolidés
+        // au prochain instantané
+        if (!generations.isEmpty()) {
+            walGeneration = generations.get(generations.size() - 1) + 1;
+        }
     }
     
-    private void saveUsers() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE))) {
-            for (User user : users.values()) {
-                writer.println(user.getUsername() + "|" + user.getPasswordHash() + "|" + user.isOnline());
+    // Instantané : copie des utilisateurs et bascule du WAL sous verrou, puis écriture
+    // de users.txt hors verrou (fichier temporaire + renommage atomique) et suppression
+    // des WAL désormais couverts par l'instantané
+    private void checkpoint() {
+        if (userWal == null || !checkpointRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<User> snapshot;
+            long newGeneration;
+            CompletableFuture<Void> rotated;
+            checkpointLock.lock();
+            try {
+                if (walRecordsSinceCheckpoint == 0) {
+                    return;
+                }
+                snapshot = new ArrayList<>(users.values());
+                walRecordsSinceCheckpoint = 0;
+                newGeneration = ++walGeneration;
+                rotated = userWal.rotate(walFile(newGeneration));
+            } finally {
+                checkpointLock.unlock();
+            }
+            
+            Path target = dataFile(USERS_FILE);
+            Path temp = dataFile(USERS_FILE + ".tmp");
+            try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+                for (User user : snapshot) {
+                    writer.write(user.getUsername() + "|" + user.getPasswordHash() + "\n");
+                }
+                writer.flush();
+                long start = System.nanoTime();
+                stream.getChannel().force(true);
+                recordFlush(start);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            rotated.join();
+            
+            for (long generation : walGenerations()) {
+                if (generation < newGeneration) {
+                    Files.deleteIfExists(Paths.get(walFile(generation)));
+                }
+            }
+        } catch (IOException | CompletionException e) {
+            // Les WAL sont conservés : ils seront rejoués au prochain démarrage (une bascule
+            // ratée laisse aussi le journal dans l'ancien fichier, sans arrêter les instantanés)
+            e.printStackTrace();
+        } finally {
+            checkpointRunning.set(false);
+        }
+    }
+    
+    private Path dataFile(String name) {
+        return dataDirectory.resolve(name);
+    }
+    
+    private String walFile(long generation) {
+        return dataFile(USERS_WAL_PREFIX + generation).toString();
+    }
+    
+    // Générations de WAL présentes sur disque, triées
+    private List<Long> walGenerations() {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDirectory, USERS_WAL_PREFIX + "*")) {
+            for (Path file : files) {
+                try {
+                    generations.add(Long.parseLong(file.getFileName().toString().substring(USERS_WAL_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Fichier étranger au WAL
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        Collections.sort(generations);
+        return generations;
     }
     
-    private void loadMessages() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(MESSAGES_FILE))) {
+    private void openMessages() {
+        try {
+            messageLog = new SegmentedMessageLog(dataFile(MESSAGES_DIR).toString(), Integer.getInteger("messages.segment.bytes", 64 * 1024 * 1024));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (messageLog.isEmpty()) {
+            importLegacyMessages();
+        }
+    }
+    
+    // Import unique de l'ancien messages.txt, renommé ensuite en messages.txt.imported
+    private void importLegacyMessages() {
+        Path legacy = dataFile(MESSAGES_FILE);
+        if (!Files.exists(legacy)) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(legacy.toFile()), StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
@@ -170,25 +441,25 @@ public class UserManager {
                     if (parts.length >= 4) {
                         message.setRecipient(parts[3]);
                     }
-                    messages.add(message);
+                    appendMessage(message);
                 }
             }
+            messageLog.force();
+            Files.move(legacy, dataFile(MESSAGES_FILE + ".imported"), StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
-            // Fichier n'existe pas encore, c'est normal
+            e.printStackTrace();
         }
     }
     
-    private void saveMessages() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(MESSAGES_FILE))) {
-            for (Message message : messages) {
-                String line = message.getSender() + "|" + message.getContent() + "|" + message.getType();
-                if (message.getRecipient() != null) {
-                    line += "|" + message.getRecipient();
-                }
-                writer.println(line);
-            }
+    private void appendMessage(Message message) {
+        if (messageLog == null) {
+            return;
+        }
+        try {
+            message.sequence = messageLog.append(message.getSender(), message.getContent(), message.getType(),
+                    message.getRecipient(), message.getTimestamp().getTime());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Accès aux threads virtuels (Java 21+) sans imposer cette version pour compiler le projet.
+// Sur une JVM plus ancienne, on se replie sur un pool de threads classiques.
+public final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+
+    private VirtualThreads() {
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // Indique si la JVM courante sait créer des threads virtuels
+    public static boolean isAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    // Un thread virtuel par tâche si possible, sinon un pool de threads classiques
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Repli ci-dessous
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+}
@@ -0,0 +1,146 @@
+import chat.bench.ChatServerHotPaths;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Serveur réel, sans réseau : chaque client est un ClientInfo dont la file d'envoi sert
+// de canal en mémoire, vidée hors mesure dans un puits qui compte les octets
+public class ChatServerFixture implements ChatServerHotPaths {
+
+    // Puits en mémoire : n'accumule que le nombre d'octets
+    private static final class CountingSink extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    private final List<ChatServer.ClientInfo> connected = new ArrayList<>();
+    private final CountingSink sink = new CountingSink();
+    private AsyncLogger logger;
+    private ChatServer server;
+    private ChatServer.ClientInfo sender;
+    private EncodedLine message;
+    private String[] privateMessages;
+    private int nextPrivate = 0;
+    private ChatServer.ClientInfo lastTarget;
+
+    @Override
+    public void setUp(int recipients) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {
+                "--queue-capacity=256", "--history-size=100", "--log-file=",
+                "--data-dir=" + Files.createTempDirectory("bench-users") });
+        logger = AsyncLogger.fromConfig(config);
+        server = new ChatServer(config, logger);
+
+        // Inscription directe dans les tables, sans la poignée de main ni les diffusions de présence
+        Map<Integer, ChatServer.ClientInfo> clients = field("clients");
+        Map<String, ChatServer.ClientInfo> pseudoIndex = field("pseudoIndex");
+        privateMessages = new String[recipients];
+        for (int number = 1; number <= recipients; number++) {
+            String pseudo = "user" + number;
+            ChatServer.ClientInfo info = new ChatServer.ClientInfo(null, config.newOutboundQueue(), AuthService.Result.anonymous(pseudo));
+            clients.put(number, info);
+            pseudoIndex.put(pseudo.toLowerCase(Locale.ROOT), info);
+            connected.add(info);
+            privateMessages[number - 1] = "@USER" + number + " bonjour";
+        }
+        sender = connected.get(0);
+
+        message = EncodedLine.of("[12:00:00] user1 : message de test pour la diffusion");
+        for (int i = 0; i < config.historySize; i++) {
+            server.addToHistory(message.text());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T field(String name) throws ReflectiveOperationException {
+        Field field = ChatServer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (T) field.get(server);
+    }
+
+    @Override
+    public void broadcastMessage() {
+        server.broadcastMessage(message, 1);
+    }
+
+    @Override
+    public void privateMessage() {
+        String line = privateMessages[nextPrivate];
+        lastTarget = connected.get(nextPrivate);
+        nextPrivate = (nextPrivate + 1) % privateMessages.length;
+        server.handlePrivateMessageByPseudo(line, 1, sender);
+    }
+
+    @Override
+    public void addToHistory() {
+        server.addToHistory(message.text());
+    }
+
+    @Override
+    public void sendHistory() {
+        server.sendHistory(1);
+    }
+
+    @Override
+    public void sendClientList() {
+        server.sendClientList(1);
+    }
+
+    @Override
+    public long drain() throws IOException {
+        for (ChatServer.ClientInfo info : connected) {
+            drain(info);
+        }
+        return sink.bytes;
+    }
+
+    @Override
+    public long drainSender() throws IOException {
+        drain(sender);
+        return sink.bytes;
+    }
+
+    @Override
+    public long drainPrivate() throws IOException {
+        drain(sender);
+        if (lastTarget != null) {
+            drain(lastTarget);
+        }
+        return sink.bytes;
+    }
+
+    private void drain(ChatServer.ClientInfo info) throws IOException {
+        EncodedLine line;
+        while ((line = info.outbound.poll()) != null) {
+            line.writeTo(sink, false);
+        }
+    }
+
+    @Override
+    public long dropped() {
+        long dropped = 0;
+        for (ChatServer.ClientInfo info : connected) {
+            dropped += info.outbound.droppedCount();
+        }
+        return dropped;
+    }
+
+    @Override
+    public void tearDown() {
+        logger.close();
+    }
+}
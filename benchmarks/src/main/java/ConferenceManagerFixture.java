@@ -0,0 +1,32 @@
+import chat.bench.ConferenceHotPaths;
+import java.util.List;
+
+public class ConferenceManagerFixture implements ConferenceHotPaths {
+
+    private final ConferenceManager manager = new ConferenceManager();
+
+    @Override
+    public void setUp(int conferences, int membersPerConference) {
+        for (int conference = 0; conference < conferences; conference++) {
+            String name = "conf" + conference;
+            manager.createConference(name, "moderateur" + conference);
+            for (int member = 0; member < membersPerConference; member++) {
+                manager.addParticipantToConference(name, "user" + member);
+            }
+        }
+    }
+
+    @Override
+    public List<String> getUserConferences() {
+        return manager.getUserConferences("user0");
+    }
+
+    @Override
+    public int visitConferenceMembers() {
+        int visited = 0;
+        for (String member : manager.getConference("conf0").getMemberSnapshot()) {
+            visited += member.length() > 0 ? 1 : 0;
+        }
+        return visited;
+    }
+}
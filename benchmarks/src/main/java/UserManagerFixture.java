@@ -0,0 +1,49 @@
+import chat.bench.UserManagerHotPaths;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+// UserManager réel, dans un répertoire temporaire supprimé à la fin
+public class UserManagerFixture implements UserManagerHotPaths {
+
+    private Path directory;
+    private UserManager users;
+
+    @Override
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("chat-bench");
+        users = new UserManager(directory.toString());
+        users.registerUser("bench", "secret");
+    }
+
+    @Override
+    public void saveMessage() {
+        users.saveMessage("bench", "message de test pour le journal", "public");
+    }
+
+    @Override
+    public boolean authenticateUser() {
+        return users.authenticateUser("bench", "secret");
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        users.close();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Diffusion, messages privés, historique et liste des clients, de 10 à 10 000 destinataires
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChatServerBenchmark {
+
+    // Diffusions par appel : moins que la capacité des files d'envoi (256, voir
+    // ChatServerFixture), qui ne sont vidées qu'une fois par itération
+    private static final int BROADCAST_BATCH = 128;
+
+    @Param({"10", "1000", "10000"})
+    public int recipients;
+
+    private ChatServerHotPaths server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = Fixtures.create(ChatServerHotPaths.class, "ChatServerFixture");
+        server.setUp(recipients);
+    }
+
+    // Files d'envoi vidées hors mesure : sans cela, une itération de plusieurs millions
+    // d'appels mesurerait le chemin de débordement (DROP_OLDEST) de la file. Seules les files
+    // écrites par l'appel sont vidées, pour que le vidage ne domine pas l'itération.
+    @State(Scope.Thread)
+    public static class EmptyQueues {
+        @Setup(Level.Iteration)
+        public void drain(ChatServerBenchmark benchmark) throws Exception {
+            benchmark.server.drain();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptySenderQueue {
+        @Setup(Level.Invocation)
+        public void drain(ChatServerBenchmark benchmark) throws Exception {
+            benchmark.server.drainSender();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyPrivateQueues {
+        @Setup(Level.Invocation)
+        public void drain(ChatServerBenchmark benchmark) throws Exception {
+            benchmark.server.drainPrivate();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkNothingDropped() {
+        long dropped = server.dropped();
+        if (dropped > 0) {
+            throw new IllegalStateException(dropped + " messages perdus par les files d'envoi : mesure faussee");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.tearDown();
+    }
+
+    // Un lot de diffusions par itération, toutes les files vidées entre deux lots : le temps
+    // rapporté est celui d'une diffusion
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(BROADCAST_BATCH)
+    @Warmup(iterations = 200)
+    @Measurement(iterations = 200)
+    public void broadcastMessage(EmptyQueues queues) {
+        for (int i = 0; i < BROADCAST_BATCH; i++) {
+            server.broadcastMessage();
+        }
+    }
+
+    @Benchmark
+    public void privateMessageByPseudo(EmptyPrivateQueues queues) {
+        server.privateMessage();
+    }
+
+    @Benchmark
+    public void addToHistory() {
+        server.addToHistory();
+    }
+
+    @Benchmark
+    public void sendHistory(EmptySenderQueue queue) {
+        server.sendHistory();
+    }
+
+    @Benchmark
+    public void sendClientList(EmptySenderQueue queue) {
+        server.sendClientList();
+    }
+}
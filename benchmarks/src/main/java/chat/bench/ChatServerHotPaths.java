@@ -0,0 +1,33 @@
+package chat.bench;
+
+// Chemins critiques de ChatServer, sur un serveur sans réseau
+public interface ChatServerHotPaths {
+
+    // recipients clients connectés, dont les files d'envoi servent de canaux en mémoire
+    void setUp(int recipients) throws Exception;
+
+    void broadcastMessage();
+
+    // Message privé vers un pseudo (casse différente) : recherche dans l'annuaire
+    void privateMessage();
+
+    void addToHistory();
+
+    void sendHistory();
+
+    void sendClientList();
+
+    // Vide les files d'envoi dans un puits en mémoire ; renvoie le total d'octets écrits
+    long drain() throws Exception;
+
+    // Vide seulement la file de l'expéditeur (historique, liste des clients)
+    long drainSender() throws Exception;
+
+    // Vide les files de l'expéditeur et du destinataire du dernier message privé
+    long drainPrivate() throws Exception;
+
+    // Messages perdus par les files d'envoi pleines depuis le début
+    long dropped();
+
+    void tearDown();
+}
@@ -0,0 +1,41 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Diffusion dans une conférence : parcours de l'instantané des membres, sans verrou
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConferenceFanOutBenchmark {
+
+    @Param({"50", "5000"})
+    public int members;
+
+    private ConferenceHotPaths manager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = Fixtures.create(ConferenceHotPaths.class, "ConferenceManagerFixture");
+        manager.setUp(1, members);
+    }
+
+    @Benchmark
+    public int visitConferenceMembers() {
+        return manager.visitConferenceMembers();
+    }
+}
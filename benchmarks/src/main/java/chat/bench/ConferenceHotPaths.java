@@ -0,0 +1,15 @@
+package chat.bench;
+
+import java.util.List;
+
+// Chemins critiques de ConferenceManager
+public interface ConferenceHotPaths {
+
+    // conferences conférences de membersPerConference membres ; "user0" est membre de toutes
+    void setUp(int conferences, int membersPerConference);
+
+    List<String> getUserConferences();
+
+    // Parcours des membres d'une conférence (diffusion d'un message), renvoie le nombre visité
+    int visitConferenceMembers();
+}
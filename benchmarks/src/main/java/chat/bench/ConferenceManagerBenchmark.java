@@ -0,0 +1,42 @@
+package chat.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Conférences d'un utilisateur, selon le nombre de conférences existantes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConferenceManagerBenchmark {
+
+    @Param({"10", "1000"})
+    public int conferences;
+
+    private ConferenceHotPaths manager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = Fixtures.create(ConferenceHotPaths.class, "ConferenceManagerFixture");
+        manager.setUp(conferences, 50);
+    }
+
+    @Benchmark
+    public List<String> getUserConferences() {
+        return manager.getUserConferences();
+    }
+}
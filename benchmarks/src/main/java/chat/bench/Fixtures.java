@@ -0,0 +1,19 @@
+package chat.bench;
+
+// Les classes du serveur sont dans le paquetage par défaut, qu'un paquetage nommé ne peut
+// pas importer (et JMH refuse les benchmarks du paquetage par défaut). Chaque benchmark
+// passe donc par une interface de ce paquetage, implémentée par une fixture du paquetage
+// par défaut chargée par son nom.
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static <T> T create(Class<T> type, String className) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Fixture introuvable : " + className, e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Enregistrement d'un message et authentification
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserManagerBenchmark {
+
+    private UserManagerHotPaths users;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        users = Fixtures.create(UserManagerHotPaths.class, "UserManagerFixture");
+        users.setUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        users.tearDown();
+    }
+
+    @Benchmark
+    public void saveMessage() {
+        users.saveMessage();
+    }
+
+    @Benchmark
+    public boolean authenticateUser() {
+        return users.authenticateUser();
+    }
+}
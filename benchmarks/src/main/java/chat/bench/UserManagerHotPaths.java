@@ -0,0 +1,13 @@
+package chat.bench;
+
+// Chemins critiques de UserManager, dans un répertoire de données temporaire
+public interface UserManagerHotPaths {
+
+    void setUp() throws Exception;
+
+    void saveMessage();
+
+    boolean authenticateUser();
+
+    void tearDown() throws Exception;
+}